@@ -0,0 +1,99 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.bayes.BayesClassifier;
+
+/**
+ * Compares the time of a classification scoring one category at a time, as
+ * the classifier used to, with the dense per-category scoring of
+ * BayesClassifier.classify.
+ *
+ * Usage: java ClassifyBenchmark [categories] [features per example]
+ *     [examples] [classifications]
+ */
+public class ClassifyBenchmark {
+
+    public static void main(String[] args) {
+        final int categories = (args.length > 0) ? Integer.parseInt(args[0]) : 500;
+        final int features = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        final int examples = (args.length > 2) ? Integer.parseInt(args[2]) : 50000;
+        final int classifications = (args.length > 3) ? Integer.parseInt(args[3]) : 500;
+
+        /*
+         * Learn random examples over a vocabulary ten times as large as the
+         * number of categories. The random seed is fixed, so runs are
+         * comparable.
+         */
+        final Random random = new Random(1);
+        final BayesClassifier<String, String> bayes = new BayesClassifier<String, String>();
+        bayes.setMemoryCapacity(examples);
+        for (int i = 0; i < examples; i++)
+            bayes.learn("c" + random.nextInt(categories), randomFeatures(random, features, categories * 10));
+        final List<String> unknown = randomFeatures(random, features, categories * 10);
+
+        System.out.println(categories + " categories, " + features + " features, "
+                + examples + " examples");
+        for (int round = 1; round <= 5; round++) {
+            long start = System.nanoTime();
+            float checksum = 0;
+            for (int i = 0; i < classifications; i++)
+                checksum += classifyPerCategory(bayes, unknown).getProbability();
+            final long perCategory = (System.nanoTime() - start) / classifications;
+
+            start = System.nanoTime();
+            for (int i = 0; i < classifications; i++)
+                checksum -= bayes.classify(unknown).getProbability();
+            final long dense = (System.nanoTime() - start) / classifications;
+
+            System.out.println("round " + round + ": per category " + perCategory / 1000
+                    + " us, dense " + dense / 1000 + " us (checksum " + checksum + ")");
+        }
+    }
+
+    /**
+     * Classifies the features one category at a time: each category's
+     * product is computed on its own, the category total is retrieved per
+     * category and the classifications are sorted to find the best one.
+     *
+     * @param bayes The classifier.
+     * @param features The features to classify.
+     * @return The most likely classification.
+     */
+    private static Classification<String, String> classifyPerCategory(
+            BayesClassifier<String, String> bayes, Collection<String> features) {
+        final SortedSet<Classification<String, String>> probabilities =
+                new TreeSet<Classification<String, String>>(
+                        new Comparator<Classification<String, String>>() {
+
+                    public int compare(Classification<String, String> o1,
+                            Classification<String, String> o2) {
+                        int toReturn = Float.compare(o1.getProbability(), o2.getProbability());
+                        if ((toReturn == 0) && !o1.getCategory().equals(o2.getCategory()))
+                            toReturn = -1;
+                        return toReturn;
+                    }
+                });
+        for (String category : bayes.getCategories()) {
+            float product = 1.0f;
+            for (String feature : features)
+                product *= bayes.featureWeighedAverage(feature, category);
+            probabilities.add(new Classification<String, String>(features, category,
+                    ((float) bayes.getCategoryCount(category) / bayes.getCategoriesTotal()) * product));
+        }
+        return probabilities.last();
+    }
+
+    private static List<String> randomFeatures(Random random, int count, int vocabulary) {
+        final List<String> features = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++)
+            features.add("f" + random.nextInt(vocabulary));
+        return features;
+    }
+
+}
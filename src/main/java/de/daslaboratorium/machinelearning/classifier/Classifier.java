@@ -1,10 +1,15 @@
 package de.daslaboratorium.machinelearning.classifier;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
 
@@ -21,7 +26,7 @@ import java.util.Set;
  * @param <K>
  *            A category class
  */
-public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, java.io.Serializable {
+public abstract class Classifier<T, K> implements IBulkFeatureProbability<T, K>, java.io.Serializable {
 
     /**
      * Generated Serial Version UID (generated for v1.0.7).
@@ -39,6 +44,40 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
      */
     private static final int INITIAL_FEATURE_DICTIONARY_CAPACITY = 32;
 
+    /**
+     * The number of counts moved per compaction step.
+     */
+    private static final int COMPACTION_STEP_SIZE = 256;
+
+    /**
+     * Whether a classifier class overrides one of the weighed average
+     * methods, which then have to be called for each category.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_WEIGHED_AVERAGE = new ClassValue<Boolean>() {
+
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return Classifier.overrides(type, "featureWeighedAverage", Object.class, Object.class)
+                    || Classifier.overrides(type, "featureWeighedAverage", Object.class, Object.class,
+                            IFeatureProbability.class, float.class, float.class);
+        }
+    };
+
+    /**
+     * Whether a classifier class overrides the probability of a single
+     * category, but not the bulk probabilities, which therefore must not be
+     * used in its place.
+     */
+    private static final ClassValue<Boolean> OVERRIDES_PROBABILITY = new ClassValue<Boolean>() {
+
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return Classifier.overrides(type, "featureProbability", Object.class, Object.class)
+                    && !Classifier.overrides(type, "featureProbabilities", Object.class, List.class,
+                            float[].class);
+        }
+    };
+
     /**
      * The initial memory capacity or how many classifications are memorized.
      */
@@ -66,6 +105,29 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
      */
     private Queue<Classification<T, K>> memoryQueue;
 
+    /**
+     * The version of the learned knowledge. It changes whenever a feature or
+     * category count changes.
+     */
+    private long modelVersion;
+
+    /**
+     * The categories whose feature dictionaries shrank far below their peak
+     * size and are waiting to be compacted.
+     */
+    private Set<K> pendingCompactions;
+
+    /**
+     * Whether the dictionary of total feature counts is waiting to be
+     * compacted.
+     */
+    private boolean totalFeatureCountCompactionPending;
+
+    /**
+     * The feature dictionary currently being compacted, if any.
+     */
+    private CountTable<T> compacting;
+
     /**
      * Constructs a new classifier without any trained knowledge.
      */
@@ -79,17 +141,60 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
     public void reset() {
         this.featureCountPerCategory = new Hashtable<K, Dictionary<T, Integer>>(
                 Classifier.INITIAL_CATEGORY_DICTIONARY_CAPACITY);
-        this.totalFeatureCount = new Hashtable<T, Integer>(Classifier.INITIAL_FEATURE_DICTIONARY_CAPACITY);
+        this.totalFeatureCount = new CountTable<T>(Classifier.INITIAL_FEATURE_DICTIONARY_CAPACITY);
         this.totalCategoryCount = new Hashtable<K, Integer>(Classifier.INITIAL_CATEGORY_DICTIONARY_CAPACITY);
         this.memoryQueue = new LinkedList<Classification<T, K>>();
+        this.pendingCompactions = new LinkedHashSet<K>();
+        this.totalFeatureCountCompactionPending = false;
+        this.compacting = null;
+        this.modelVersion++;
+    }
+
+    /**
+     * Restores a serialized classifier. Classifiers serialized before their
+     * feature dictionaries were compacted carry no compaction state, so it is
+     * initialized here. A compaction in progress is finished at once.
+     *
+     * @param in
+     *            The stream to read the classifier from.
+     * @throws IOException
+     *             If the stream cannot be read.
+     * @throws ClassNotFoundException
+     *             If a class of the serialized classifier cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.pendingCompactions == null) {
+            this.pendingCompactions = new LinkedHashSet<K>();
+        }
+        if (this.compacting != null) {
+            this.compacting.migrate(Integer.MAX_VALUE);
+        }
+        this.totalFeatureCountCompactionPending = false;
+        this.compacting = null;
+    }
+
+    /**
+     * Retrieves the version of the learned knowledge. The version changes
+     * whenever the classifier learns, forgets or is reset, so anything derived
+     * from the knowledge is up to date as long as the version is unchanged.
+     *
+     * @return The version of the learned knowledge.
+     */
+    public long getModelVersion() {
+        return this.modelVersion;
     }
 
     /**
-     * Returns a <code>Set</code> of features the classifier knows about.
+     * Returns a <code>Set</code> of features the classifier knows about. The
+     * set is a read-only view, which reflects later changes of the known
+     * features.
      *
      * @return The <code>Set</code> of features the classifier knows about.
      */
     public Set<T> getFeatures() {
+        if (this.totalFeatureCount instanceof CountTable)
+            return ((CountTable<T>) this.totalFeatureCount).keySet();
         return ((Hashtable<T, Integer>) this.totalFeatureCount).keySet();
     }
 
@@ -152,7 +257,7 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
         Dictionary<T, Integer> features = this.featureCountPerCategory.get(category);
         if (features == null) {
             this.featureCountPerCategory.put(category,
-                    new Hashtable<T, Integer>(Classifier.INITIAL_FEATURE_DICTIONARY_CAPACITY));
+                    new CountTable<T>(Classifier.INITIAL_FEATURE_DICTIONARY_CAPACITY));
             features = this.featureCountPerCategory.get(category);
         }
         Integer count = features.get(feature);
@@ -168,6 +273,7 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
             totalCount = this.totalFeatureCount.get(feature);
         }
         this.totalFeatureCount.put(feature, ++totalCount);
+        this.modelVersion++;
     }
 
     /**
@@ -184,6 +290,7 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
             count = this.totalCategoryCount.get(category);
         }
         this.totalCategoryCount.put(category, ++count);
+        this.modelVersion++;
     }
 
     /**
@@ -209,10 +316,14 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
             features.remove(feature);
             if (features.size() == 0) {
                 this.featureCountPerCategory.remove(category);
+                this.pendingCompactions.remove(category);
+            } else if (Classifier.needsCompaction(features)) {
+                this.pendingCompactions.add(category);
             }
         } else {
             features.put(feature, --count);
         }
+        this.modelVersion++;
 
         Integer totalCount = this.totalFeatureCount.get(feature);
         if (totalCount == null) {
@@ -220,6 +331,9 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
         }
         if (totalCount.intValue() == 1) {
             this.totalFeatureCount.remove(feature);
+            if (Classifier.needsCompaction(this.totalFeatureCount)) {
+                this.totalFeatureCountCompactionPending = true;
+            }
         } else {
             this.totalFeatureCount.put(feature, --totalCount);
         }
@@ -242,6 +356,7 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
         } else {
             this.totalCategoryCount.put(category, --count);
         }
+        this.modelVersion++;
     }
 
     /**
@@ -298,6 +413,21 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void featureProbabilities(T feature, List<K> categories, float[] probabilities) {
+        final float totalFeatureCount = this.getFeatureCount(feature);
+
+        for (int i = 0; i < categories.size(); i++) {
+            if (totalFeatureCount == 0) {
+                probabilities[i] = 0;
+            } else {
+                probabilities[i] = this.getFeatureCount(feature, categories.get(i)) / totalFeatureCount;
+            }
+        }
+    }
+
     /**
      * Retrieves the weighed average <code>P(feature|category)</code> with
      * overall weight of <code>1.0</code> and an assumed probability of
@@ -394,6 +524,60 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
         return (weight * assumedProbability + totals * basicProbability) / (weight + totals);
     }
 
+    /**
+     * Retrieves the weighed averages <code>P(feature|category)</code> of the
+     * given feature for each of the given categories with the given weight,
+     * the given assumed probability and the given object to use for
+     * probability calculation. If the calculating object implements
+     * <code>IBulkFeatureProbability</code>, it is asked for the probabilities
+     * of all categories at once. Subclasses overriding
+     * <code>featureWeighedAverage</code> or only
+     * <code>featureProbability</code> are asked once per category instead.
+     *
+     * @see de.daslaboratorium.machinelearning.classifier.Classifier#featureWeighedAverage(Object,
+     *      Object, IFeatureProbability, float, float)
+     *
+     * @param feature
+     *            The feature, which probabilities to calculate.
+     * @param categories
+     *            The categories.
+     * @param calculator
+     *            The calculating object.
+     * @param weight
+     *            The feature weight.
+     * @param assumedProbability
+     *            The assumed probability.
+     * @param averages
+     *            The array to store the weighed averages in, at the index of
+     *            the category.
+     */
+    public void featureWeighedAverages(T feature, List<K> categories, IFeatureProbability<T, K> calculator,
+            float weight, float assumedProbability, float[] averages) {
+        final int length = categories.size();
+        if (OVERRIDES_WEIGHED_AVERAGE.get(this.getClass())) {
+            final boolean defaults = calculator == null && weight == 1.0f && assumedProbability == 0.5f;
+            for (int i = 0; i < length; i++)
+                averages[i] = defaults ? this.featureWeighedAverage(feature, categories.get(i))
+                        : this.featureWeighedAverage(feature, categories.get(i), calculator, weight,
+                                assumedProbability);
+            return;
+        }
+
+        final IFeatureProbability<T, K> source = (calculator == null) ? this : calculator;
+        if (source instanceof IBulkFeatureProbability
+                && (source != this || !OVERRIDES_PROBABILITY.get(this.getClass()))) {
+            ((IBulkFeatureProbability<T, K>) source).featureProbabilities(feature, categories, averages);
+        } else {
+            for (int i = 0; i < length; i++)
+                averages[i] = source.featureProbability(feature, categories.get(i));
+        }
+
+        Integer totals = this.totalFeatureCount.get(feature);
+        if (totals == null) totals = 0;
+        for (int i = 0; i < length; i++)
+            averages[i] = (weight * assumedProbability + totals * averages[i]) / (weight + totals);
+    }
+
     /**
      * Train the classifier by telling it that the given features resulted in
      * the given category.
@@ -428,6 +612,138 @@ public abstract class Classifier<T, K> implements IFeatureProbability<T, K>, jav
                 this.decrementFeature(feature, toForget.getCategory());
             this.decrementCategory(toForget.getCategory());
         }
+
+        this.compactStep();
+    }
+
+    /**
+     * Compacts the feature dictionaries, which shrank far below their peak
+     * size after features were forgotten, in small steps. Each step moves a
+     * bounded number of counts of one dictionary to a right-sized table; the
+     * dictionary stays usable in between. It is called once per learned
+     * classification, so the memory held by the dictionaries follows the
+     * known features without long pauses.
+     *
+     * @return <code>true</code> if a compaction step was done,
+     *         <code>false</code> if no dictionary is waiting to be compacted.
+     */
+    public boolean compactStep() {
+        if (this.compacting != null) {
+            if (!this.compacting.migrate(Classifier.COMPACTION_STEP_SIZE)) {
+                this.compacting = null;
+            }
+            return true;
+        }
+
+        if (this.totalFeatureCountCompactionPending) {
+            this.totalFeatureCountCompactionPending = false;
+            if (Classifier.needsCompaction(this.totalFeatureCount)) {
+                this.startCompaction(this.totalFeatureCount);
+                return true;
+            }
+        }
+
+        final Iterator<K> pending = this.pendingCompactions.iterator();
+        while (pending.hasNext()) {
+            final K category = pending.next();
+            pending.remove();
+            final Dictionary<T, Integer> features = this.featureCountPerCategory.get(category);
+            if (Classifier.needsCompaction(features)) {
+                this.startCompaction(features);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts compacting the given feature dictionary.
+     *
+     * @param features
+     *            The dictionary, which needs compaction.
+     */
+    private void startCompaction(Dictionary<T, Integer> features) {
+        this.compacting = (CountTable<T>) features;
+        this.compacting.startCompaction();
+    }
+
+    /**
+     * Checks whether the given classifier class overrides the given public
+     * method of this class.
+     *
+     * @param type
+     *            The classifier class.
+     * @param name
+     *            The method name.
+     * @param parameterTypes
+     *            The erased parameter types of the method.
+     * @return <code>true</code> if the method is overridden.
+     */
+    private static boolean overrides(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes).getDeclaringClass() != Classifier.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Checks whether the given dictionary shrank far below its peak size.
+     *
+     * @param dictionary
+     *            The dictionary, may be <code>null</code>.
+     * @return <code>true</code> if the dictionary should be compacted.
+     */
+    private static boolean needsCompaction(Dictionary<?, Integer> dictionary) {
+        return (dictionary instanceof CountTable) && ((CountTable<?>) dictionary).needsCompaction();
+    }
+
+    /**
+     * Compacts all feature dictionaries, which shrank far below their peak
+     * size, at once.
+     */
+    public void compact() {
+        while (this.compactStep())
+            ;
+    }
+
+    /**
+     * Adds the learned feature and category counts of the given classifier to
+     * this classifier. This is equal to learning everything the given
+     * classifier has learned at once. The merged knowledge is not memorized,
+     * so it will never be forgotten.
+     *
+     * @param other
+     *            The classifier, which counts to add.
+     */
+    public void merge(Classifier<T, K> other) {
+        for (Enumeration<K> categories = other.featureCountPerCategory.keys(); categories.hasMoreElements();) {
+            K category = categories.nextElement();
+            Dictionary<T, Integer> otherFeatures = other.featureCountPerCategory.get(category);
+            Dictionary<T, Integer> features = this.featureCountPerCategory.get(category);
+            if (features == null) {
+                features = new CountTable<T>(
+                        Math.max(Classifier.INITIAL_FEATURE_DICTIONARY_CAPACITY, otherFeatures.size() * 2));
+                this.featureCountPerCategory.put(category, features);
+            }
+            for (Enumeration<T> e = otherFeatures.keys(); e.hasMoreElements();) {
+                T feature = e.nextElement();
+                Integer count = features.get(feature);
+                features.put(feature, otherFeatures.get(feature) + ((count == null) ? 0 : count));
+            }
+        }
+        for (Enumeration<T> e = other.totalFeatureCount.keys(); e.hasMoreElements();) {
+            T feature = e.nextElement();
+            Integer count = this.totalFeatureCount.get(feature);
+            this.totalFeatureCount.put(feature, other.totalFeatureCount.get(feature) + ((count == null) ? 0 : count));
+        }
+        for (Enumeration<K> e = other.totalCategoryCount.keys(); e.hasMoreElements();) {
+            K category = e.nextElement();
+            Integer count = this.totalCategoryCount.get(category);
+            this.totalCategoryCount.put(category,
+                    other.totalCategoryCount.get(category) + ((count == null) ? 0 : count));
+        }
+        this.modelVersion++;
     }
 
     /**
@@ -0,0 +1,256 @@
+package de.daslaboratorium.machinelearning.classifier;
+
+import java.util.AbstractSet;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A dictionary of counts that remembers the largest number of entries it
+ * held. A <code>Hashtable</code> never shrinks, so after most of its entries
+ * have been removed it still holds the memory of its peak size. The counts
+ * can therefore be moved to a right-sized table in small steps: while the
+ * table is compacting, new counts go to the new table, lookups consult both
+ * tables and each step moves a bounded number of entries from the old to the
+ * new table.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <E>
+ *            The counted class.
+ */
+class CountTable<E> extends Dictionary<E, Integer> implements java.io.Serializable {
+
+    /**
+     * Generated Serial Version UID (generated for v1.0.7).
+     */
+    private static final long serialVersionUID = 3355290733913591432L;
+
+    /**
+     * The table is worth compacting once it holds less than the peak number
+     * of entries divided by this factor.
+     */
+    private static final int SHRINK_FACTOR = 4;
+
+    /**
+     * The capacity the table is never compacted below.
+     */
+    private final int minimumCapacity;
+
+    /**
+     * The table holding the counts.
+     */
+    private Hashtable<E, Integer> table;
+
+    /**
+     * The table the counts are moved out of while compacting, otherwise
+     * <code>null</code>.
+     */
+    private Hashtable<E, Integer> draining;
+
+    /**
+     * The keys of the draining table that are still to be moved.
+     */
+    private transient Enumeration<E> drainingKeys;
+
+    /**
+     * The largest number of entries the table held since its creation or
+     * its last compaction.
+     */
+    private int peakSize;
+
+    /**
+     * Constructs a new table with the given initial capacity, which is never
+     * compacted below it.
+     *
+     * @param initialCapacity
+     *            The initial capacity.
+     */
+    CountTable(int initialCapacity) {
+        this.minimumCapacity = initialCapacity;
+        this.table = new Hashtable<E, Integer>(initialCapacity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized int size() {
+        return this.table.size() + ((this.draining == null) ? 0 : this.draining.size());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized boolean isEmpty() {
+        return this.size() == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer get(Object key) {
+        final Integer value = this.table.get(key);
+        if (value == null && this.draining != null)
+            return this.draining.get(key);
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer put(E key, Integer value) {
+        Integer previous = this.table.put(key, value);
+        if (this.draining != null) {
+            final Integer drained = this.draining.remove(key);
+            if (previous == null) previous = drained;
+        }
+        if (this.size() > this.peakSize) {
+            this.peakSize = this.size();
+        }
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Integer remove(Object key) {
+        Integer previous = this.table.remove(key);
+        if (this.draining != null) {
+            final Integer drained = this.draining.remove(key);
+            if (previous == null) previous = drained;
+        }
+        return previous;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Enumeration<E> keys() {
+        if (this.draining == null) return this.table.keys();
+        return CountTable.concat(this.table.keys(), this.draining.keys());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized Enumeration<Integer> elements() {
+        if (this.draining == null) return this.table.elements();
+        return CountTable.concat(this.table.elements(), this.draining.elements());
+    }
+
+    /**
+     * Returns a read-only <code>Set</code> view of the counted keys. The view
+     * reflects later changes of the table, including its compaction.
+     *
+     * @return The counted keys.
+     */
+    Set<E> keySet() {
+        return new AbstractSet<E>() {
+
+            @Override
+            public Iterator<E> iterator() {
+                final Enumeration<E> keys = CountTable.this.keys();
+                return new Iterator<E>() {
+
+                    public boolean hasNext() {
+                        return keys.hasMoreElements();
+                    }
+
+                    public E next() {
+                        return keys.nextElement();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CountTable.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return CountTable.this.get(o) != null;
+            }
+        };
+    }
+
+    /**
+     * Checks whether the table holds so few entries compared to its peak
+     * size, that it should be compacted.
+     *
+     * @return <code>true</code> if the table should be compacted.
+     */
+    synchronized boolean needsCompaction() {
+        return this.draining == null && this.peakSize > this.minimumCapacity
+                && this.size() * SHRINK_FACTOR < this.peakSize;
+    }
+
+    /**
+     * Starts moving the counts to a right-sized table.
+     */
+    synchronized void startCompaction() {
+        this.draining = this.table;
+        this.drainingKeys = this.draining.keys();
+        this.table = new Hashtable<E, Integer>(Math.max(this.minimumCapacity, this.draining.size() * 2));
+        this.peakSize = this.draining.size();
+    }
+
+    /**
+     * Moves up to the given number of counts to the right-sized table.
+     *
+     * @param maxEntries
+     *            The maximum number of counts to move.
+     * @return <code>true</code> if counts are left to move,
+     *         <code>false</code> if the compaction is finished.
+     */
+    synchronized boolean migrate(int maxEntries) {
+        if (this.draining == null) return false;
+        if (this.drainingKeys == null) this.drainingKeys = this.draining.keys();
+        for (int i = 0; i < maxEntries && this.drainingKeys.hasMoreElements(); i++) {
+            /*
+             * The enumeration of a Hashtable tolerates removals, but may still
+             * return a key removed after it was reached.
+             */
+            final E key = this.drainingKeys.nextElement();
+            final Integer value = this.draining.remove(key);
+            if (value != null) this.table.put(key, value);
+        }
+        if (this.drainingKeys.hasMoreElements()) return true;
+
+        this.table.putAll(this.draining);
+        this.draining = null;
+        this.drainingKeys = null;
+        return false;
+    }
+
+    /**
+     * Enumerates the elements of the first and then of the second
+     * enumeration.
+     */
+    private static <V> Enumeration<V> concat(final Enumeration<V> first, final Enumeration<V> second) {
+        return new Enumeration<V>() {
+
+            public boolean hasMoreElements() {
+                return first.hasMoreElements() || second.hasMoreElements();
+            }
+
+            public V nextElement() {
+                return first.hasMoreElements() ? first.nextElement() : second.nextElement();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.daslaboratorium.machinelearning.classifier;
+
+import java.util.List;
+
+/**
+ * Extended interface calculating the probabilities of a feature for many
+ * categories at once. Classifiers use it instead of calling
+ * {@link IFeatureProbability#featureProbability(Object, Object)} once per
+ * category, whenever a calculator implements it.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <T>
+ *            The feature class.
+ * @param <K>
+ *            The category class.
+ */
+public interface IBulkFeatureProbability<T, K> extends IFeatureProbability<T, K> {
+
+    /**
+     * Calculates the probabilities of a <code>feature</code> being
+     * classified as each of the <code>categories</code> in the learning set.
+     * The result has to be equal to calling
+     * {@link IFeatureProbability#featureProbability(Object, Object)} for
+     * each category.
+     *
+     * @param feature
+     *            the feature to return the probabilities for
+     * @param categories
+     *            the categories to check the feature against
+     * @param probabilities
+     *            the array to store <code>p(feature|category)</code> in, at
+     *            the index of the category
+     */
+    public void featureProbabilities(T feature, List<K> categories, float[] probabilities);
+
+}
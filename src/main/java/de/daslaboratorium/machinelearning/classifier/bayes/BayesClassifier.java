@@ -1,12 +1,18 @@
 package de.daslaboratorium.machinelearning.classifier.bayes;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import de.daslaboratorium.machinelearning.classifier.Classification;
 import de.daslaboratorium.machinelearning.classifier.Classifier;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
 
 /**
  * A concrete implementation of the abstract Classifier class.  The Bayes
@@ -23,33 +29,241 @@ import de.daslaboratorium.machinelearning.classifier.Classifier;
 public class BayesClassifier<T, K> extends Classifier<T, K> {
 
     /**
-     * Calculates the product of all feature probabilities: PROD(P(featI|cat)
+     * The weight of the assumed feature probability.
+     */
+    static final float FEATURE_WEIGHT = 1.0f;
+
+    /**
+     * The probability assumed for a feature before it was seen.
+     */
+    static final float ASSUMED_PROBABILITY = 0.5f;
+
+    /**
+     * The object used to calculate feature probabilities, or
+     * <code>null</code> to use the classifier's own counts. It is not
+     * serialized.
+     */
+    private transient IFeatureProbability<T, K> calculator;
+
+    /**
+     * The number of classifications the cache holds. A capacity of zero
+     * disables the cache.
+     */
+    private int cacheCapacity = 0;
+
+    /**
+     * The cache of recent classifications, keyed by featureset and evicting
+     * the least recently used entry first. Each entry holds the
+     * probabilities of the featureset, indexed like the cached categories.
+     */
+    private transient Map<FeatureMultiset<T>, float[]> cache;
+
+    /**
+     * The known categories at the model version of the cache, shared by all
+     * cache entries.
+     */
+    private transient List<K> cacheCategories;
+
+    /**
+     * The model version the cached classifications were computed for.
+     */
+    private transient long cacheVersion;
+
+    /**
+     * The number of classifications answered from the cache.
+     */
+    private transient long cacheHits;
+
+    /**
+     * The number of classifications not found in the cache.
+     */
+    private transient long cacheMisses;
+
+    /**
+     * The probabilities of a featureset for each of the known categories.
+     * Only the probabilities are cached; the categories are shared.
+     *
+     * @param <K> The category class.
+     */
+    private static final class CategoryScores<K> {
+
+        private final List<K> categories;
+
+        private final float[] probabilities;
+
+        private CategoryScores(List<K> categories, float[] probabilities) {
+            this.categories = categories;
+            this.probabilities = probabilities;
+        }
+    }
+
+    /**
+     * Calculates the probabilities that the features can be classified as
+     * each of the categories given: P(cat)*PROD(P(featI|cat). The products
+     * of all categories are accumulated side by side, one feature at a time.
      *
      * @param features The set of features to use.
-     * @param category The category to test for.
-     * @return The product of all feature probabilities.
-     */
-    private float featuresProbabilityProduct(Collection<T> features,
-            K category) {
-        float product = 1.0f;
-        for (T feature : features)
-            product *= this.featureWeighedAverage(feature, category);
-        return product;
+     * @param categories The categories to test for.
+     * @return The probability per category, in the order of the categories
+     *    given.
+     */
+    private float[] scoreCategories(Collection<T> features,
+            List<K> categories) {
+        final int length = categories.size();
+        final float[] products = new float[length];
+        final float[] factors = new float[length];
+        Arrays.fill(products, 1.0f);
+        for (T feature : features) {
+            this.featureWeighedAverages(feature, categories, this.calculator,
+                    FEATURE_WEIGHT, ASSUMED_PROBABILITY, factors);
+            CategoryAccumulators.multiply(products, factors, length);
+        }
+
+        final float categoriesTotal = this.getCategoriesTotal();
+        for (int i = 0; i < length; i++)
+            products[i] = ((float) this.getCategoryCount(categories.get(i))
+                    / categoriesTotal) * products[i];
+        return products;
+    }
+
+    /**
+     * Retrieves the object used to calculate feature probabilities.
+     *
+     * @return The calculating object or <code>null</code> if the classifier's
+     *    own counts are used.
+     */
+    public IFeatureProbability<T, K> getFeatureProbabilityCalculator() {
+        return this.calculator;
     }
 
     /**
-     * Calculates the probability that the features can be classified as the
-     * category given.
+     * Sets the object used to calculate the feature probabilities
+     * P(featI|cat) when classifying. If it implements
+     * <code>IBulkFeatureProbability</code>, it is asked for the
+     * probabilities of each feature for all categories at once. Setting
+     * <code>null</code>, the default, uses the classifier's own counts.
+     *
+     * The calculating object is not serialized with the classifier, so it
+     * need not be serializable and has to be set again after the classifier
+     * was deserialized.
+     *
+     * @param calculator The calculating object.
+     */
+    public synchronized void setFeatureProbabilityCalculator(
+            IFeatureProbability<T, K> calculator) {
+        this.calculator = calculator;
+        this.cache = null;
+    }
+
+    /**
+     * Calculates the probabilities that the features can be classified as
+     * each of the known categories. The result is taken from the cache if the
+     * same featureset has been classified since the classifier last learned
+     * or forgot anything.
      *
      * @param features The set of features to use.
-     * @param category The category to test for.
-     * @return The probability that the features can be classified as the
-     *    category.
-     */
-    private float categoryProbability(Collection<T> features, K category) {
-        return ((float) this.getCategoryCount(category)
-                    / (float) this.getCategoriesTotal())
-                * featuresProbabilityProduct(features, category);
+     * @return The probabilities of all known categories.
+     */
+    private CategoryScores<K> categoryScores(Collection<T> features) {
+        if (this.cacheCapacity <= 0) {
+            final List<K> categories = new ArrayList<K>(this.getCategories());
+            return new CategoryScores<K>(categories,
+                    this.scoreCategories(features, categories));
+        }
+
+        final FeatureMultiset<T> key = new FeatureMultiset<T>(features);
+        final Map<FeatureMultiset<T>, float[]> filledCache;
+        final List<K> categories;
+        synchronized (this) {
+            if (this.cache == null
+                    || this.cacheVersion != this.getModelVersion()) {
+                this.clearCache();
+            }
+            categories = this.cacheCategories;
+            final float[] cached = this.cache.get(key);
+            if (cached != null) {
+                this.cacheHits++;
+                return new CategoryScores<K>(categories, cached);
+            }
+            this.cacheMisses++;
+            filledCache = this.cache;
+        }
+
+        final float[] probabilities = this.scoreCategories(features, categories);
+        synchronized (this) {
+            /*
+             * Only cache the result if neither the knowledge nor the cache
+             * changed while it was calculated.
+             */
+            if (this.cache == filledCache
+                    && this.cacheVersion == this.getModelVersion())
+                this.cache.put(key, probabilities);
+        }
+        return new CategoryScores<K>(categories, probabilities);
+    }
+
+    /**
+     * Empties the classification cache and tags it with the current model
+     * version and categories.
+     */
+    private void clearCache() {
+        final int capacity = this.cacheCapacity;
+        this.cache = new LinkedHashMap<FeatureMultiset<T>, float[]>(
+                16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<FeatureMultiset<T>, float[]> eldest) {
+                return this.size() > capacity;
+            }
+        };
+        this.cacheCategories = new ArrayList<K>(this.getCategories());
+        this.cacheVersion = this.getModelVersion();
+    }
+
+    /**
+     * Retrieves the number of classifications the cache holds.
+     *
+     * @return The cache capacity, zero if the cache is disabled.
+     */
+    public int getCacheCapacity() {
+        return this.cacheCapacity;
+    }
+
+    /**
+     * Sets the number of classifications the cache holds. Featuresets
+     * containing the same features the same number of times share a cache
+     * entry, regardless of their order. A capacity of zero, the default,
+     * disables the cache. Changing the capacity empties the cache.
+     *
+     * @param cacheCapacity The new cache capacity.
+     */
+    public synchronized void setCacheCapacity(int cacheCapacity) {
+        if (cacheCapacity < 0)
+            throw new IllegalArgumentException(
+                    "cache capacity must not be negative, was " + cacheCapacity);
+        this.cacheCapacity = cacheCapacity;
+        this.cache = null;
+    }
+
+    /**
+     * Retrieves the number of classifications answered from the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public synchronized long getCacheHits() {
+        return this.cacheHits;
+    }
+
+    /**
+     * Retrieves the number of classifications not found in the cache.
+     *
+     * @return The number of cache misses.
+     */
+    public synchronized long getCacheMisses() {
+        return this.cacheMisses;
     }
 
     /**
@@ -84,10 +298,10 @@ public class BayesClassifier<T, K> extends Classifier<T, K> {
                     }
                 });
 
-        for (K category : this.getCategories())
-            probabilities.add(new Classification<T, K>(
-                    features, category,
-                    this.categoryProbability(features, category)));
+        final CategoryScores<K> scores = this.categoryScores(features);
+        for (int i = 0; i < scores.categories.size(); i++)
+            probabilities.add(new Classification<T, K>(features,
+                    scores.categories.get(i), scores.probabilities[i]));
         return probabilities;
     }
 
@@ -98,11 +312,13 @@ public class BayesClassifier<T, K> extends Classifier<T, K> {
      */
     @Override
     public Classification<T, K> classify(Collection<T> features) {
-        SortedSet<Classification<T, K>> probabilites =
-                this.categoryProbabilities(features);
+        final CategoryScores<K> scores = this.categoryScores(features);
 
-        if (probabilites.size() > 0) {
-            return probabilites.last();
+        final int best = CategoryAccumulators.argmax(scores.probabilities,
+                scores.categories.size());
+        if (best >= 0) {
+            return new Classification<T, K>(features,
+                    scores.categories.get(best), scores.probabilities[best]);
         }
         return null;
     }
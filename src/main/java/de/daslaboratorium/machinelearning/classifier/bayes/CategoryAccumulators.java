@@ -0,0 +1,64 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+/**
+ * Operations on dense per-category accumulators. When a featureset is scored
+ * against all categories at once, the scores are kept in one array indexed by
+ * category and each feature's probabilities for all categories are combined
+ * into it in a single pass, instead of scoring one category at a time.
+ *
+ * @author Philipp Nolte
+ */
+final class CategoryAccumulators {
+
+    private CategoryAccumulators() {
+    }
+
+    /**
+     * Multiplies each accumulator with the factor at the same index:
+     * <code>accumulators[i] *= factors[i]</code>.
+     *
+     * @param accumulators The accumulators, one per category.
+     * @param factors The factors, one per category.
+     * @param length The number of categories.
+     */
+    static void multiply(float[] accumulators, float[] factors, int length) {
+        for (int i = 0; i < length; i++)
+            accumulators[i] *= factors[i];
+    }
+
+    /**
+     * Turns the given feature probabilities into weighed averages, like
+     * <code>Classifier.featureWeighedAverage</code> does:
+     * <code>probabilities[i] = (weight * assumedProbability + totals *
+     * probabilities[i]) / (weight + totals)</code>.
+     *
+     * @param probabilities The feature probabilities, one per category.
+     * @param length The number of categories.
+     * @param totals The total number of occurrences of the feature.
+     * @param weight The feature weight.
+     * @param assumedProbability The assumed probability.
+     */
+    static void weighedAverages(float[] probabilities, int length, int totals, float weight,
+            float assumedProbability) {
+        for (int i = 0; i < length; i++)
+            probabilities[i] = (weight * assumedProbability + totals * probabilities[i]) / (weight + totals);
+    }
+
+    /**
+     * Retrieves the index of the largest value. Of several equal values, the
+     * first one wins.
+     *
+     * @param values The values.
+     * @param length The number of values.
+     * @return The index of the largest value or <code>-1</code> if there are
+     *    no values.
+     */
+    static int argmax(float[] values, int length) {
+        if (length == 0) return -1;
+        int best = 0;
+        for (int i = 1; i < length; i++)
+            if (Float.compare(values[i], values[best]) > 0) best = i;
+        return best;
+    }
+
+}
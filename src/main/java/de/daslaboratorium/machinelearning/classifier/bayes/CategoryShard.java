@@ -0,0 +1,239 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.IBulkFeatureProbability;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
+
+/**
+ * A partition of the categories of a {@link ShardedBayesClassifier}. It holds
+ * the category counts and the feature counts per category of its categories,
+ * as well as the totals of both over its categories. The totals across all
+ * categories are gathered from all shards and handed in for scoring. A shard
+ * is not thread-safe itself; its own lock has to be held while accessing it.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <T> The feature class.
+ * @param <K> The category class.
+ */
+class CategoryShard<T, K> {
+
+    /**
+     * A dictionary mapping features to their number of occurrences in each of
+     * the shard's categories.
+     */
+    private final Map<K, Map<T, Integer>> featureCountPerCategory =
+            new HashMap<K, Map<T, Integer>>();
+
+    /**
+     * A dictionary mapping the shard's categories to their number of
+     * occurrences.
+     */
+    private final Map<K, Integer> categoryCount = new HashMap<K, Integer>();
+
+    /**
+     * A dictionary mapping features to their number of occurrences in all of
+     * the shard's categories.
+     */
+    private final Map<T, Integer> totalFeatureCount = new HashMap<T, Integer>();
+
+    /**
+     * The number of occurrences of all of the shard's categories.
+     */
+    private int categoriesTotal;
+
+    /**
+     * Guards the shard's counts: learning is exclusive, classifying is
+     * shared.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Retrieves the lock guarding the shard's counts.
+     *
+     * @return The shard's lock.
+     */
+    ReadWriteLock getLock() {
+        return this.lock;
+    }
+
+    /**
+     * Counts the given features once more in the given category and the
+     * category once more.
+     *
+     * @param category The category.
+     * @param features The features.
+     */
+    void increment(K category, Collection<T> features) {
+        Map<T, Integer> counts = this.featureCountPerCategory.get(category);
+        if (counts == null) {
+            counts = new HashMap<T, Integer>();
+            this.featureCountPerCategory.put(category, counts);
+        }
+        for (T feature : features) {
+            Integer count = counts.get(feature);
+            counts.put(feature, (count == null) ? 1 : count + 1);
+            Integer total = this.totalFeatureCount.get(feature);
+            this.totalFeatureCount.put(feature, (total == null) ? 1 : total + 1);
+        }
+        Integer count = this.categoryCount.get(category);
+        this.categoryCount.put(category, (count == null) ? 1 : count + 1);
+        this.categoriesTotal++;
+    }
+
+    /**
+     * Counts the given features once less in the given category and the
+     * category once less.
+     *
+     * @param category The category.
+     * @param features The features.
+     */
+    void decrement(K category, Collection<T> features) {
+        Map<T, Integer> counts = this.featureCountPerCategory.get(category);
+        if (counts != null) {
+            for (T feature : features) {
+                Integer count = counts.get(feature);
+                if (count == null) continue;
+                if (count == 1) {
+                    counts.remove(feature);
+                } else {
+                    counts.put(feature, count - 1);
+                }
+                Integer total = this.totalFeatureCount.get(feature);
+                if (total == 1) {
+                    this.totalFeatureCount.remove(feature);
+                } else {
+                    this.totalFeatureCount.put(feature, total - 1);
+                }
+            }
+            if (counts.isEmpty())
+                this.featureCountPerCategory.remove(category);
+        }
+        Integer count = this.categoryCount.get(category);
+        if (count == null) return;
+        if (count == 1) {
+            this.categoryCount.remove(category);
+        } else {
+            this.categoryCount.put(category, count - 1);
+        }
+        this.categoriesTotal--;
+    }
+
+    /**
+     * Retrieves the number of occurrences of the given category.
+     *
+     * @param category The category.
+     * @return The number of occurrences.
+     */
+    int getCategoryCount(K category) {
+        Integer count = this.categoryCount.get(category);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Retrieves the number of occurrences of all of the shard's categories.
+     *
+     * @return The number of occurrences.
+     */
+    int getCategoriesTotal() {
+        return this.categoriesTotal;
+    }
+
+    /**
+     * Retrieves the number of occurrences of the given feature in all of the
+     * shard's categories.
+     *
+     * @param feature The feature.
+     * @return The number of occurrences.
+     */
+    int getFeatureCount(T feature) {
+        Integer count = this.totalFeatureCount.get(feature);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Retrieves the number of occurrences of the given feature in the given
+     * category.
+     *
+     * @param feature The feature.
+     * @param category The category.
+     * @return The number of occurrences.
+     */
+    int getFeatureCount(T feature, K category) {
+        Map<T, Integer> features = this.featureCountPerCategory.get(category);
+        Integer count = (features == null) ? null : features.get(feature);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Retrieves the shard's categories.
+     *
+     * @return A copy of the shard's categories.
+     */
+    List<K> getCategories() {
+        return new ArrayList<K>(this.categoryCount.keySet());
+    }
+
+    /**
+     * Calculates the probabilities that the features can be classified as
+     * each of the shard's categories, exactly as the {@link BayesClassifier}
+     * does with the same feature probability calculator.
+     *
+     * @param features The set of features to use.
+     * @param totalFeatureCount The number of occurrences of each of the
+     *    features across all categories.
+     * @param categoriesTotal The number of occurrences of all categories.
+     * @param calculator The object used to calculate feature probabilities,
+     *    or <code>null</code> to use the shard's counts.
+     * @return The classifications of all of the shard's categories.
+     */
+    List<Classification<T, K>> score(Collection<T> features, Map<T, Integer> totalFeatureCount,
+            float categoriesTotal, IFeatureProbability<T, K> calculator) {
+        final List<K> categories = new ArrayList<K>(this.categoryCount.keySet());
+        final int length = categories.size();
+        final List<Map<T, Integer>> counts = new ArrayList<Map<T, Integer>>(length);
+        for (K category : categories)
+            counts.add(this.featureCountPerCategory.get(category));
+
+        final float[] products = new float[length];
+        final float[] factors = new float[length];
+        Arrays.fill(products, 1.0f);
+        for (T feature : features) {
+            Integer totals = totalFeatureCount.get(feature);
+            if (totals == null) totals = 0;
+            if (calculator instanceof IBulkFeatureProbability) {
+                ((IBulkFeatureProbability<T, K>) calculator).featureProbabilities(feature, categories, factors);
+            } else if (calculator != null) {
+                for (int i = 0; i < length; i++)
+                    factors[i] = calculator.featureProbability(feature, categories.get(i));
+            } else {
+                for (int i = 0; i < length; i++) {
+                    Integer count = (counts.get(i) == null) ? null : counts.get(i).get(feature);
+                    factors[i] = (totals == 0) ? 0 : ((count == null) ? 0 : count) / (float) totals;
+                }
+            }
+            CategoryAccumulators.weighedAverages(factors, length, totals,
+                    BayesClassifier.FEATURE_WEIGHT, BayesClassifier.ASSUMED_PROBABILITY);
+            CategoryAccumulators.multiply(products, factors, length);
+        }
+
+        final List<Classification<T, K>> classifications =
+                new ArrayList<Classification<T, K>>(length);
+        for (int i = 0; i < length; i++) {
+            final K category = categories.get(i);
+            classifications.add(new Classification<T, K>(features, category,
+                    ((float) this.categoryCount.get(category) / categoriesTotal) * products[i]));
+        }
+        return classifications;
+    }
+
+}
@@ -0,0 +1,567 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.Classifier;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
+
+/**
+ * A read-only, memory-compact snapshot of a trained classifier. The weighed
+ * feature probabilities of the source classifier are stored as quantized
+ * logarithms (8 or 16 bit) in varint-encoded rows, one row per feature. The
+ * categories the feature never occurred in usually share one probability,
+ * which is stored once per row, so a row only lists the categories deviating
+ * from it. The feature probability calculator of a {@link BayesClassifier}
+ * source is taken into account. Features are
+ * looked up by a minimal perfect hash over their hash codes, so the features
+ * themselves need not be kept in memory. The row index only holds the offset
+ * of every sixteenth row; the rows in between are found by skipping the
+ * length-prefixed rows before them.
+ *
+ * The classification follows the one of the {@link BayesClassifier}:
+ * classify(feat1,...,featN) = argmax(P(cat)*PROD(P(featI|cat)), but it is
+ * computed as a sum of logarithms. Each feature contributes a logarithmic
+ * error of at most half the quantization step, so the logarithm of any
+ * returned probability differs from the full-precision one by at most
+ * <code>features.size() * getQuantizationStep() / 2</code>.
+ *
+ * Features are identified by their hash code: an unknown feature sharing its
+ * hash code with a known one is treated as the known one.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <T> The feature class.
+ * @param <K> The category class.
+ */
+public class CompactBayesClassifier<T, K> implements Serializable {
+
+    /**
+     * Generated Serial Version UID (generated for v1.0.7).
+     */
+    private static final long serialVersionUID = -2914537166407180514L;
+
+    /**
+     * The default number of bits used per quantized log-probability.
+     */
+    public static final int DEFAULT_PRECISION = 8;
+
+    /**
+     * The assumed probability of a feature the classifier has never seen. It
+     * is the weighed average of a feature with a total count of zero.
+     */
+    private static final double UNKNOWN_FEATURE_PROBABILITY = 0.5;
+
+    /**
+     * The average number of keys per bucket of the minimal perfect hash.
+     */
+    private static final int KEYS_PER_BUCKET = 3;
+
+    /**
+     * The number of rows per block of the row index.
+     */
+    private static final int ROWS_PER_BLOCK = 16;
+
+    /**
+     * The known categories, indexed by their category id.
+     */
+    private final Object[] categories;
+
+    /**
+     * The logarithm of each category's probability P(cat).
+     */
+    private final double[] logPriors;
+
+    /**
+     * The number of bits per quantized log-probability, either 8 or 16.
+     */
+    private final int precision;
+
+    /**
+     * The distance between two quantized log-probabilities.
+     */
+    private final double quantizationStep;
+
+    /**
+     * The number of features addressed by the minimal perfect hash.
+     */
+    private final int hashedFeatures;
+
+    /**
+     * The displacement of each bucket of the minimal perfect hash.
+     */
+    private final int[] displacements;
+
+    /**
+     * The hash code of the feature stored at each slot.
+     */
+    private final int[] fingerprints;
+
+    /**
+     * The number of rows, one per known feature.
+     */
+    private final int rowCount;
+
+    /**
+     * The offset of the first row of each block of rows within the row data.
+     * The rows of a block are found by skipping the rows before them.
+     */
+    private final int[] blockOffsets;
+
+    /**
+     * The encoded rows in slot order. Each row starts with its length in
+     * bytes as a varint, followed by the quantized default log-probability of
+     * the feature, the number of categories it occurred in and for each of
+     * these categories the delta to the previous category id and the
+     * quantized log-probability.
+     */
+    private final byte[] rows;
+
+    /**
+     * Slots of features whose hash codes are not unique in the vocabulary and
+     * can therefore not be addressed by the minimal perfect hash.
+     */
+    private final Map<T, Integer> collisions;
+
+    /**
+     * Constructs a compact snapshot of the given classifier with a precision
+     * of 8 bits per log-probability.
+     *
+     * @param source The trained classifier.
+     */
+    public CompactBayesClassifier(Classifier<T, K> source) {
+        this(source, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Constructs a compact snapshot of the given classifier.
+     *
+     * @param source The trained classifier.
+     * @param precision The number of bits per log-probability, 8 or 16.
+     */
+    public CompactBayesClassifier(Classifier<T, K> source, int precision) {
+        if (precision != 8 && precision != 16)
+            throw new IllegalArgumentException(
+                    "precision must be 8 or 16 bits, was " + precision);
+        this.precision = precision;
+
+        List<K> categoryList = new ArrayList<K>(source.getCategories());
+        this.categories = categoryList.toArray();
+        this.logPriors = new double[this.categories.length];
+        final float categoriesTotal = source.getCategoriesTotal();
+        for (int i = 0; i < this.categories.length; i++)
+            this.logPriors[i] = Math.log(source.getCategoryCount(categoryList.get(i))
+                    / categoriesTotal);
+
+        /*
+         * Split the vocabulary into features with a unique hash code, which
+         * are addressed by the minimal perfect hash, and the rare features
+         * sharing their hash code with another one.
+         */
+        List<T> features = new ArrayList<T>(source.getFeatures());
+        Map<Integer, T> byHash = new Hashtable<Integer, T>(features.size() * 2 + 1);
+        Set<Integer> collidingHashes = new HashSet<Integer>();
+        for (T feature : features) {
+            if (byHash.put(feature.hashCode(), feature) != null)
+                collidingHashes.add(feature.hashCode());
+        }
+        List<T> colliding = new ArrayList<T>();
+        for (T feature : features) {
+            if (collidingHashes.contains(feature.hashCode()))
+                colliding.add(feature);
+        }
+        for (Integer hash : collidingHashes)
+            byHash.remove(hash);
+        int[] hashes = new int[byHash.size()];
+        int index = 0;
+        for (Integer hash : byHash.keySet())
+            hashes[index++] = hash;
+        Arrays.sort(hashes);
+
+        this.hashedFeatures = hashes.length;
+        this.displacements = new int[hashes.length / KEYS_PER_BUCKET + 1];
+        this.fingerprints = new int[hashes.length];
+        this.buildPerfectHash(hashes);
+
+        this.collisions = new Hashtable<T, Integer>();
+        for (int i = 0; i < colliding.size(); i++)
+            this.collisions.put(colliding.get(i), hashes.length + i);
+
+        /*
+         * The rows are calculated twice, once to find the range the
+         * quantization has to cover and once to encode them, so only a single
+         * row is held in memory at any time.
+         */
+        final IFeatureProbability<T, K> calculator = (source instanceof BayesClassifier)
+                ? ((BayesClassifier<T, K>) source).getFeatureProbabilityCalculator() : null;
+        final int slots = hashes.length + colliding.size();
+        final double[] row = new double[this.categories.length + 1];
+        final float[] averages = new float[this.categories.length];
+        double maxNegLog = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            T feature = (slot < hashes.length) ? byHash.get(this.fingerprints[slot])
+                    : colliding.get(slot - hashes.length);
+            maxNegLog = Math.max(maxNegLog, negLogRow(source, calculator, feature, categoryList, averages, row));
+        }
+        final int maxQuantized = (1 << precision) - 1;
+        this.quantizationStep = (maxNegLog > 0) ? maxNegLog / maxQuantized : 1.0;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(slots * 4);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        this.rowCount = slots;
+        this.blockOffsets = new int[(slots + ROWS_PER_BLOCK - 1) / ROWS_PER_BLOCK];
+        for (int slot = 0; slot < slots; slot++) {
+            T feature = (slot < hashes.length) ? byHash.get(this.fingerprints[slot])
+                    : colliding.get(slot - hashes.length);
+            negLogRow(source, calculator, feature, categoryList, averages, row);
+
+            encoded.reset();
+            int occurrences = 0;
+            for (int i = 0; i < this.categories.length; i++)
+                if (!Double.isNaN(row[i])) occurrences++;
+            this.writeQuantized(encoded, this.quantize(row[this.categories.length]));
+            writeVarint(encoded, occurrences);
+            int previous = 0;
+            for (int i = 0; i < this.categories.length; i++) {
+                if (Double.isNaN(row[i])) continue;
+                writeVarint(encoded, i - previous);
+                this.writeQuantized(encoded, this.quantize(row[i]));
+                previous = i;
+            }
+
+            if (slot % ROWS_PER_BLOCK == 0)
+                this.blockOffsets[slot / ROWS_PER_BLOCK] = out.size();
+            writeVarint(out, encoded.size());
+            out.write(encoded.toByteArray(), 0, encoded.size());
+        }
+        this.rows = out.toByteArray();
+    }
+
+    /**
+     * Calculates the negative logarithms of the weighed probabilities of the
+     * given feature for each category. The probability of the first category
+     * the feature never occurred in is stored after the last category as the
+     * default of the row; categories sharing exactly this probability are
+     * marked with <code>NaN</code>.
+     *
+     * @param source The trained classifier.
+     * @param calculator The calculating object of the source or
+     *    <code>null</code>.
+     * @param feature The feature.
+     * @param categories The categories, indexed by category id.
+     * @param averages The array to calculate the weighed probabilities in.
+     * @param row The array to store the row in.
+     * @return The largest negative logarithm of the row.
+     */
+    private static <T, K> double negLogRow(Classifier<T, K> source, IFeatureProbability<T, K> calculator,
+            T feature, List<K> categories, float[] averages, double[] row) {
+        final int length = categories.size();
+        source.featureWeighedAverages(feature, categories, calculator,
+                BayesClassifier.FEATURE_WEIGHT, BayesClassifier.ASSUMED_PROBABILITY, averages);
+        int defaultCategory = -1;
+        for (int i = 0; i < length && defaultCategory < 0; i++)
+            if (source.getFeatureCount(feature, categories.get(i)) == 0) defaultCategory = i;
+
+        double maxNegLog = 0;
+        row[length] = (defaultCategory < 0) ? 0 : -Math.log(averages[defaultCategory]);
+        for (int i = 0; i < length; i++) {
+            double negLog = -Math.log(averages[i]);
+            if (defaultCategory >= 0 && averages[i] == averages[defaultCategory]) {
+                row[i] = Double.NaN;
+            } else {
+                row[i] = negLog;
+            }
+            if (negLog > maxNegLog) maxNegLog = negLog;
+        }
+        return maxNegLog;
+    }
+
+    /**
+     * Builds the minimal perfect hash by the hash-and-displace method: the
+     * hash codes are distributed into buckets and, largest bucket first, a
+     * displacement is searched for every bucket that maps all of its keys to
+     * free slots.
+     *
+     * @param hashes The distinct hash codes of the features.
+     */
+    private void buildPerfectHash(int[] hashes) {
+        final int buckets = this.displacements.length;
+        List<List<Integer>> bucketKeys = new ArrayList<List<Integer>>(buckets);
+        for (int i = 0; i < buckets; i++)
+            bucketKeys.add(new ArrayList<Integer>(KEYS_PER_BUCKET));
+        for (int hash : hashes)
+            bucketKeys.get(bucket(hash, buckets)).add(hash);
+
+        Integer[] order = new Integer[buckets];
+        for (int i = 0; i < buckets; i++)
+            order[i] = i;
+        final List<List<Integer>> keys = bucketKeys;
+        Arrays.sort(order, new Comparator<Integer>() {
+
+            public int compare(Integer o1, Integer o2) {
+                return keys.get(o2).size() - keys.get(o1).size();
+            }
+        });
+
+        boolean[] taken = new boolean[hashes.length];
+        int[] candidates = new int[hashes.length];
+        for (Integer b : order) {
+            List<Integer> bucket = bucketKeys.get(b);
+            if (bucket.isEmpty()) break;
+            for (int displacement = 0;; displacement++) {
+                int placed = 0;
+                for (; placed < bucket.size(); placed++) {
+                    int slot = slot(bucket.get(placed), displacement, hashes.length);
+                    if (taken[slot]) break;
+                    taken[slot] = true;
+                    candidates[placed] = slot;
+                }
+                if (placed == bucket.size()) {
+                    this.displacements[b] = displacement;
+                    for (int i = 0; i < placed; i++)
+                        this.fingerprints[candidates[i]] = bucket.get(i);
+                    break;
+                }
+                for (int i = 0; i < placed; i++)
+                    taken[candidates[i]] = false;
+            }
+        }
+    }
+
+    /**
+     * Scrambles the bits of the given value.
+     *
+     * @param value The value.
+     * @return The scrambled value.
+     */
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x85ebca6b;
+        value ^= value >>> 13;
+        value *= 0xc2b2ae35;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    private static int bucket(int hash, int buckets) {
+        return (mix(hash) & Integer.MAX_VALUE) % buckets;
+    }
+
+    private static int slot(int hash, int displacement, int slots) {
+        return (mix(hash + 0x9e3779b9 * (displacement + 1)) & Integer.MAX_VALUE) % slots;
+    }
+
+    /**
+     * Retrieves the slot of the given feature.
+     *
+     * @param feature The feature.
+     * @return The slot or <code>-1</code> if the feature is unknown.
+     */
+    private int slotOf(T feature) {
+        if (!this.collisions.isEmpty()) {
+            Integer slot = this.collisions.get(feature);
+            if (slot != null) return slot;
+        }
+        if (this.hashedFeatures == 0) return -1;
+        final int hash = feature.hashCode();
+        final int slot = slot(hash,
+                this.displacements[bucket(hash, this.displacements.length)],
+                this.hashedFeatures);
+        return (this.fingerprints[slot] == hash) ? slot : -1;
+    }
+
+    /**
+     * Retrieves the position of the given slot's row within the row data,
+     * just after the row length.
+     *
+     * @param slot The slot.
+     * @return The position of the row.
+     */
+    private int rowPosition(int slot) {
+        int position = this.blockOffsets[slot / ROWS_PER_BLOCK];
+        for (int skipped = slot % ROWS_PER_BLOCK;; skipped--) {
+            int length = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = this.rows[position++];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) break;
+            }
+            if (skipped == 0) return position;
+            position += length;
+        }
+    }
+
+    private int quantize(double negLog) {
+        final int maxQuantized = (1 << this.precision) - 1;
+        long quantized = Math.round(Math.max(0, negLog) / this.quantizationStep);
+        return (int) Math.min(quantized, maxQuantized);
+    }
+
+    private void writeQuantized(ByteArrayOutputStream out, int quantized) {
+        if (this.precision == 16)
+            out.write(quantized >>> 8);
+        out.write(quantized);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Calculates the logarithmic probabilities of the given features for
+     * every category.
+     *
+     * @param features The set of features to use.
+     * @return The logarithmic probability per category id.
+     */
+    private double[] logProbabilities(Collection<T> features) {
+        double[] scores = this.logPriors.clone();
+        double base = 0;
+        for (T feature : features) {
+            final int slot = this.slotOf(feature);
+            if (slot < 0) {
+                base += Math.log(UNKNOWN_FEATURE_PROBABILITY);
+                continue;
+            }
+
+            int position = this.rowPosition(slot);
+            int defaultQuantized = this.rows[position++] & 0xff;
+            if (this.precision == 16)
+                defaultQuantized = (defaultQuantized << 8) | (this.rows[position++] & 0xff);
+            base -= defaultQuantized * this.quantizationStep;
+
+            int occurrences = 0;
+            for (int shift = 0;; shift += 7) {
+                byte b = this.rows[position++];
+                occurrences |= (b & 0x7f) << shift;
+                if (b >= 0) break;
+            }
+            int category = 0;
+            for (int i = 0; i < occurrences; i++) {
+                int delta = 0;
+                for (int shift = 0;; shift += 7) {
+                    byte b = this.rows[position++];
+                    delta |= (b & 0x7f) << shift;
+                    if (b >= 0) break;
+                }
+                category += delta;
+                int quantized = this.rows[position++] & 0xff;
+                if (this.precision == 16)
+                    quantized = (quantized << 8) | (this.rows[position++] & 0xff);
+                scores[category] += (defaultQuantized - quantized) * this.quantizationStep;
+            }
+        }
+        for (int i = 0; i < scores.length; i++)
+            scores[i] += base;
+        return scores;
+    }
+
+    /**
+     * Classifies the given set of features.
+     *
+     * @param features The set of features to classify.
+     * @return The category the set of features is classified as or
+     *    <code>null</code> if no category is known.
+     */
+    @SuppressWarnings("unchecked")
+    public Classification<T, K> classify(Collection<T> features) {
+        if (this.categories.length == 0) return null;
+        double[] scores = this.logProbabilities(features);
+        int best = 0;
+        for (int i = 1; i < scores.length; i++)
+            if (scores[i] > scores[best]) best = i;
+        return new Classification<T, K>(features, (K) this.categories[best],
+                (float) Math.exp(scores[best]));
+    }
+
+    /**
+     * Classifies the given set of features and returns the full details of
+     * the classification, ordered by ascending probability.
+     *
+     * @param features The set of features to classify.
+     * @return The set of categories the set of features is classified as.
+     */
+    @SuppressWarnings("unchecked")
+    public Collection<Classification<T, K>> classifyDetailed(Collection<T> features) {
+        double[] scores = this.logProbabilities(features);
+        List<Classification<T, K>> classifications =
+                new ArrayList<Classification<T, K>>(scores.length);
+        for (int i = 0; i < scores.length; i++)
+            classifications.add(new Classification<T, K>(features,
+                    (K) this.categories[i], (float) Math.exp(scores[i])));
+        Collections.sort(classifications, new Comparator<Classification<T, K>>() {
+
+            public int compare(Classification<T, K> o1, Classification<T, K> o2) {
+                return Float.compare(o1.getProbability(), o2.getProbability());
+            }
+        });
+        return classifications;
+    }
+
+    /**
+     * Retrieves the distance between two quantized log-probabilities. Half of
+     * it is the maximum logarithmic error a single feature contributes.
+     *
+     * @return The quantization step.
+     */
+    public double getQuantizationStep() {
+        return this.quantizationStep;
+    }
+
+    /**
+     * Retrieves the number of bits per quantized log-probability.
+     *
+     * @return The precision, 8 or 16.
+     */
+    public int getPrecision() {
+        return this.precision;
+    }
+
+    /**
+     * Retrieves the number of features the classifier knows about.
+     *
+     * @return The number of features.
+     */
+    public int getFeatureCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Estimates the memory held by the feature tables in bytes, that is the
+     * perfect hash, the row index and the rows. Category objects and the rare
+     * colliding features are not accounted for.
+     *
+     * @return The estimated memory usage in bytes.
+     */
+    public long getMemoryUsage() {
+        return 4L * (this.displacements.length + this.fingerprints.length + this.blockOffsets.length)
+                + this.rows.length + 8L * this.logPriors.length;
+    }
+
+    /**
+     * Estimates the memory held per known feature in bytes.
+     *
+     * @see de.daslaboratorium.machinelearning.classifier.bayes.CompactBayesClassifier#getMemoryUsage()
+     *
+     * @return The estimated memory usage per feature in bytes.
+     */
+    public float getMemoryUsagePerFeature() {
+        return (this.rowCount == 0) ? 0 : this.getMemoryUsage() / (float) this.rowCount;
+    }
+
+}
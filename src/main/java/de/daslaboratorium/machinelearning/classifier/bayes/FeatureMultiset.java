@@ -0,0 +1,80 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable multiset of features, used as key of the classification
+ * cache. Two featuresets are equal if they contain the same features the same
+ * number of times, regardless of their order. The hash code is computed once
+ * as an order-insensitive sum of the scrambled feature hash codes.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <T> The feature class.
+ */
+final class FeatureMultiset<T> {
+
+    /**
+     * The number of occurrences of each feature.
+     */
+    private final Map<T, Integer> counts;
+
+    /**
+     * The precomputed hash code.
+     */
+    private final int hash;
+
+    /**
+     * Constructs the multiset of the given features.
+     *
+     * @param features The features.
+     */
+    FeatureMultiset(Collection<T> features) {
+        this.counts = new HashMap<T, Integer>(features.size() * 2);
+        int hash = 0;
+        for (T feature : features) {
+            Integer count = this.counts.get(feature);
+            this.counts.put(feature, (count == null) ? 1 : count + 1);
+            hash += mix((feature == null) ? 0 : feature.hashCode());
+        }
+        this.hash = hash;
+    }
+
+    /**
+     * Scrambles the bits of the given hash code, so that the sum of several
+     * hash codes is well distributed.
+     *
+     * @param value The hash code.
+     * @return The scrambled hash code.
+     */
+    private static int mix(int value) {
+        value ^= value >>> 16;
+        value *= 0x85ebca6b;
+        value ^= value >>> 13;
+        value *= 0xc2b2ae35;
+        value ^= value >>> 16;
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return this.hash;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof FeatureMultiset)) return false;
+        FeatureMultiset<?> other = (FeatureMultiset<?>) obj;
+        return this.hash == other.hash && this.counts.equals(other.counts);
+    }
+
+}
@@ -0,0 +1,495 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
+
+/**
+ * A naive Bayes classifier for very large numbers of categories. The
+ * categories are partitioned across a number of shards, each with its own
+ * counts and its own read-write lock. A classification scores all shards in
+ * parallel and gathers the most likely categories.
+ *
+ * Each shard also counts the features and categories over its own
+ * categories. A classification takes the read locks of all shards, always in
+ * the same order, and sums these totals, so the probabilities equal those of
+ * a {@link BayesClassifier} that learned the classifications counted by the
+ * shards at that point, with the same feature probability calculator.
+ * Learning only takes the write lock of the learned category's shard, so
+ * classifications run concurrently with each other and learning in different
+ * shards runs concurrently as well. Like the {@link BayesClassifier}, the
+ * classifier is forgetful: an old classification is forgotten right after a
+ * new one is learned.
+ *
+ * The classifier keeps its own counts and memory instead of extending
+ * {@link de.daslaboratorium.machinelearning.classifier.Classifier} and is not
+ * serializable.
+ *
+ * @author Philipp Nolte
+ *
+ * @param <T> The feature class.
+ * @param <K> The category class.
+ */
+public class ShardedBayesClassifier<T, K> {
+
+    /**
+     * Orders classifications by ascending probability.
+     */
+    private final Comparator<Classification<T, K>> byProbability =
+            new Comparator<Classification<T, K>>() {
+
+        public int compare(Classification<T, K> o1, Classification<T, K> o2) {
+            return Float.compare(o1.getProbability(), o2.getProbability());
+        }
+    };
+
+    /**
+     * The shards holding the counts of the categories.
+     */
+    private final List<CategoryShard<T, K>> shards;
+
+    /**
+     * The executor scoring the shards.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * The object used to calculate feature probabilities, or
+     * <code>null</code> to use the classifier's own counts.
+     */
+    private volatile IFeatureProbability<T, K> calculator;
+
+    /**
+     * The memory capacity or how many classifications are memorized.
+     */
+    private int memoryCapacity = 1000;
+
+    /**
+     * The classifier's memory. It will forget old classifications as soon as
+     * they become too old. It guards itself and the memory capacity.
+     */
+    private final Queue<Classification<T, K>> memoryQueue =
+            new LinkedList<Classification<T, K>>();
+
+    /**
+     * Constructs a new classifier with the given number of shards, scoring
+     * them on the common fork-join pool.
+     *
+     * @param shardCount The number of shards.
+     */
+    public ShardedBayesClassifier(int shardCount) {
+        this(shardCount, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructs a new classifier with the given number of shards, scoring
+     * them on the given executor.
+     *
+     * @param shardCount The number of shards.
+     * @param executor The executor scoring the shards.
+     */
+    public ShardedBayesClassifier(int shardCount, ExecutorService executor) {
+        if (shardCount < 1)
+            throw new IllegalArgumentException(
+                    "shard count must be positive, was " + shardCount);
+        this.shards = new ArrayList<CategoryShard<T, K>>(shardCount);
+        for (int i = 0; i < shardCount; i++)
+            this.shards.add(new CategoryShard<T, K>());
+        this.executor = executor;
+    }
+
+    /**
+     * Retrieves the shard holding the given category.
+     *
+     * @param category The category.
+     * @return The category's shard.
+     */
+    private CategoryShard<T, K> shardOf(K category) {
+        int hash = category.hashCode();
+        hash ^= hash >>> 16;
+        return this.shards.get((hash & Integer.MAX_VALUE) % this.shards.size());
+    }
+
+    /**
+     * Retrieves the number of shards.
+     *
+     * @return The number of shards.
+     */
+    public int getShardCount() {
+        return this.shards.size();
+    }
+
+    /**
+     * Retrieves the memory's capacity.
+     *
+     * @return The memory's capacity.
+     */
+    public int getMemoryCapacity() {
+        synchronized (this.memoryQueue) {
+            return this.memoryCapacity;
+        }
+    }
+
+    /**
+     * Sets the memory's capacity. If the new value is less than the old
+     * value, the memory will be truncated accordingly.
+     *
+     * @param memoryCapacity The new memory capacity.
+     */
+    public void setMemoryCapacity(int memoryCapacity) {
+        synchronized (this.memoryQueue) {
+            for (int i = this.memoryCapacity; i > memoryCapacity; i--) {
+                this.memoryQueue.poll();
+            }
+            this.memoryCapacity = memoryCapacity;
+        }
+    }
+
+    /**
+     * Retrieves the object used to calculate feature probabilities.
+     *
+     * @return The calculating object or <code>null</code> if the classifier's
+     *    own counts are used.
+     */
+    public IFeatureProbability<T, K> getFeatureProbabilityCalculator() {
+        return this.calculator;
+    }
+
+    /**
+     * Sets the object used to calculate the feature probabilities
+     * P(featI|cat) when classifying. If it implements
+     * <code>IBulkFeatureProbability</code>, it is asked for the
+     * probabilities of each feature for all categories of a shard at once.
+     * The shards are scored in parallel, so the calculating object has to be
+     * thread-safe. Setting <code>null</code>, the default, uses the
+     * classifier's own counts.
+     *
+     * @param calculator The calculating object.
+     */
+    public void setFeatureProbabilityCalculator(IFeatureProbability<T, K> calculator) {
+        this.calculator = calculator;
+    }
+
+    /**
+     * Train the classifier by telling it that the given features resulted in
+     * the given category.
+     *
+     * @param category The category the features belong to.
+     * @param features The features that resulted in the given category.
+     */
+    public void learn(K category, Collection<T> features) {
+        this.learn(new Classification<T, K>(features, category));
+    }
+
+    /**
+     * Train the classifier by telling it that the given features resulted in
+     * the given category.
+     *
+     * @param classification The classification to learn.
+     */
+    public void learn(Classification<T, K> classification) {
+        final CategoryShard<T, K> shard = this.shardOf(classification.getCategory());
+        shard.getLock().writeLock().lock();
+        try {
+            shard.increment(classification.getCategory(), classification.getFeatureset());
+        } finally {
+            shard.getLock().writeLock().unlock();
+        }
+
+        /*
+         * A classification is only memorized once it is counted, so it is
+         * never forgotten before it was learned.
+         */
+        final Classification<T, K> toForget;
+        synchronized (this.memoryQueue) {
+            this.memoryQueue.offer(classification);
+            toForget = (this.memoryQueue.size() > this.memoryCapacity)
+                    ? this.memoryQueue.remove() : null;
+        }
+        if (toForget != null) {
+            final CategoryShard<T, K> forgetting = this.shardOf(toForget.getCategory());
+            forgetting.getLock().writeLock().lock();
+            try {
+                forgetting.decrement(toForget.getCategory(), toForget.getFeatureset());
+            } finally {
+                forgetting.getLock().writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Takes the read locks of all shards, always in the order of the shards,
+     * so no shard changes until they are released.
+     */
+    private void readLockAll() {
+        int locked = 0;
+        try {
+            for (; locked < this.shards.size(); locked++)
+                this.shards.get(locked).getLock().readLock().lock();
+        } finally {
+            if (locked < this.shards.size()) this.readUnlock(locked);
+        }
+    }
+
+    /**
+     * Releases the read locks of the given number of first shards.
+     *
+     * @param count The number of shards to release.
+     */
+    private void readUnlock(int count) {
+        for (int i = count - 1; i >= 0; i--)
+            this.shards.get(i).getLock().readLock().unlock();
+    }
+
+    /**
+     * Returns a <code>Set</code> of categories the classifier knows about.
+     *
+     * @return A copy of the categories the classifier knows about.
+     */
+    public Set<K> getCategories() {
+        this.readLockAll();
+        try {
+            Set<K> categories = new HashSet<K>();
+            for (CategoryShard<T, K> shard : this.shards)
+                categories.addAll(shard.getCategories());
+            return categories;
+        } finally {
+            this.readUnlock(this.shards.size());
+        }
+    }
+
+    /**
+     * Retrieves the total number of occurrences of all categories.
+     *
+     * @return The total category count.
+     */
+    public int getCategoriesTotal() {
+        this.readLockAll();
+        try {
+            int total = 0;
+            for (CategoryShard<T, K> shard : this.shards)
+                total += shard.getCategoriesTotal();
+            return total;
+        } finally {
+            this.readUnlock(this.shards.size());
+        }
+    }
+
+    /**
+     * Retrieves the number of occurrences of the given category.
+     *
+     * @param category The category, which count should be retrieved.
+     * @return The number of occurrences.
+     */
+    public int getCategoryCount(K category) {
+        final CategoryShard<T, K> shard = this.shardOf(category);
+        final Lock lock = shard.getLock().readLock();
+        lock.lock();
+        try {
+            return shard.getCategoryCount(category);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the total number of occurrences of the given feature.
+     *
+     * @param feature The feature, which count to retrieve.
+     * @return The total number of occurrences of the feature.
+     */
+    public int getFeatureCount(T feature) {
+        this.readLockAll();
+        try {
+            int total = 0;
+            for (CategoryShard<T, K> shard : this.shards)
+                total += shard.getFeatureCount(feature);
+            return total;
+        } finally {
+            this.readUnlock(this.shards.size());
+        }
+    }
+
+    /**
+     * Retrieves the number of occurrences of the given feature in the given
+     * category.
+     *
+     * @param feature The feature, which count to retrieve.
+     * @param category The category, which the feature occurred in.
+     * @return The number of occurrences of the feature in the category.
+     */
+    public int getFeatureCount(T feature, K category) {
+        final CategoryShard<T, K> shard = this.shardOf(category);
+        final Lock lock = shard.getLock().readLock();
+        lock.lock();
+        try {
+            return shard.getFeatureCount(feature, category);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Scores the given features in all shards in parallel. The calling
+     * thread holds the read locks of all shards until all shards are scored.
+     * It gathers the totals of the features and categories from the shards
+     * and then scores the first shard itself.
+     *
+     * @param features The set of features to use.
+     * @return The classifications of all categories, one list per shard.
+     */
+    private List<List<Classification<T, K>>> scatter(final Collection<T> features) {
+        this.readLockAll();
+        try {
+            int categoriesTotal = 0;
+            final Set<T> distinctFeatures = new HashSet<T>(features);
+            final Map<T, Integer> totals = new HashMap<T, Integer>();
+            for (CategoryShard<T, K> shard : this.shards) {
+                categoriesTotal += shard.getCategoriesTotal();
+                for (T feature : distinctFeatures) {
+                    Integer count = totals.get(feature);
+                    totals.put(feature, ((count == null) ? 0 : count) + shard.getFeatureCount(feature));
+                }
+            }
+            final float total = categoriesTotal;
+            final IFeatureProbability<T, K> calculator = this.calculator;
+            final List<Future<List<Classification<T, K>>>> futures =
+                    new ArrayList<Future<List<Classification<T, K>>>>(this.shards.size() - 1);
+            try {
+                for (final CategoryShard<T, K> shard : this.shards.subList(1, this.shards.size())) {
+                    futures.add(this.executor.submit(new Callable<List<Classification<T, K>>>() {
+
+                        public List<Classification<T, K>> call() {
+                            return shard.score(features, totals, total, calculator);
+                        }
+                    }));
+                }
+
+                final List<List<Classification<T, K>>> results =
+                        new ArrayList<List<Classification<T, K>>>(this.shards.size());
+                results.add(this.shards.get(0).score(features, totals, total, calculator));
+                for (Future<List<Classification<T, K>>> future : futures)
+                    results.add(future.get());
+                return results;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while classifying", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                if (e.getCause() instanceof Error)
+                    throw (Error) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                /*
+                 * No shard may still be scored once the read locks are
+                 * released, or it could observe learning.
+                 */
+                for (Future<List<Classification<T, K>>> future : futures)
+                    awaitQuietly(future);
+            }
+        } finally {
+            this.readUnlock(this.shards.size());
+        }
+    }
+
+    /**
+     * Waits until the given future completed, ignoring its outcome. An
+     * interruption is deferred until then.
+     *
+     * @param future The future to wait for.
+     */
+    private static void awaitQuietly(Future<?> future) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Classifies the given set of features.
+     *
+     * @param features The set of features to classify.
+     * @return The category the set of features is classified as or
+     *    <code>null</code> if no category is known.
+     */
+    public Classification<T, K> classify(Collection<T> features) {
+        List<Classification<T, K>> best = this.classify(features, 1);
+        return best.isEmpty() ? null : best.get(0);
+    }
+
+    /**
+     * Retrieves the given number of categories the given set of features is
+     * most likely classified as.
+     *
+     * @param features The set of features to classify.
+     * @param k The number of categories to retrieve.
+     * @return The most likely categories, ordered by descending probability.
+     */
+    public List<Classification<T, K>> classify(Collection<T> features, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive, was " + k);
+        final List<List<Classification<T, K>>> results = this.scatter(features);
+        int categoryCount = 0;
+        for (List<Classification<T, K>> shardResults : results)
+            categoryCount += shardResults.size();
+        final PriorityQueue<Classification<T, K>> best = new PriorityQueue<Classification<T, K>>(
+                Math.min(k, categoryCount) + 1, this.byProbability);
+        for (List<Classification<T, K>> shardResults : results) {
+            for (Classification<T, K> classification : shardResults) {
+                if (best.size() < k) {
+                    best.add(classification);
+                } else if (this.byProbability.compare(classification, best.peek()) > 0) {
+                    best.poll();
+                    best.add(classification);
+                }
+            }
+        }
+        final List<Classification<T, K>> toReturn = new ArrayList<Classification<T, K>>(best);
+        Collections.sort(toReturn, Collections.reverseOrder(this.byProbability));
+        return toReturn;
+    }
+
+    /**
+     * Classifies the given set of features and returns the full details of
+     * the classification.
+     *
+     * @param features The set of features to classify.
+     * @return The classifications of all categories, ordered by ascending
+     *    probability.
+     */
+    public Collection<Classification<T, K>> classifyDetailed(Collection<T> features) {
+        final List<Classification<T, K>> classifications = new ArrayList<Classification<T, K>>();
+        for (List<Classification<T, K>> shardResults : this.scatter(features))
+            classifications.addAll(shardResults);
+        Collections.sort(classifications, this.byProbability);
+        return classifications;
+    }
+
+}
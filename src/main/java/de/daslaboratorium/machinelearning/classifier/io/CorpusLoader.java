@@ -0,0 +1,463 @@
+package de.daslaboratorium.machinelearning.classifier.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import de.daslaboratorium.machinelearning.classifier.Classifier;
+import de.daslaboratorium.machinelearning.classifier.bayes.BayesClassifier;
+
+/**
+ * Trains a classifier from a labeled corpus file. The file is streamed and
+ * split into chunks of whole lines. The chunks are parsed, tokenized and
+ * counted in parallel, each into a partial classifier of its own, which is
+ * then merged into the target classifier.
+ *
+ * Two formats are supported: tab separated lines holding the category and
+ * the text, and JSON lines holding an object with a category field and a text
+ * field. The text field may also be an array of already tokenized features.
+ *
+ * At most two chunks per thread are held in memory at any time, so the
+ * memory needed is bounded by the chunk size rather than the corpus size. As
+ * the knowledge is merged, it is not memorized by the target classifier and
+ * will never be forgotten.
+ *
+ * @see de.daslaboratorium.machinelearning.classifier.Classifier#merge(Classifier)
+ *
+ * @author Philipp Nolte
+ */
+public class CorpusLoader {
+
+    /**
+     * The supported corpus formats.
+     */
+    public enum Format {
+
+        /**
+         * One example per line: the category, a tab and the text.
+         */
+        TSV,
+
+        /**
+         * One JSON object per line holding the category and the text.
+         */
+        JSONL
+    }
+
+    /**
+     * The default number of characters per chunk.
+     */
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The number of chunks per thread that may be read ahead.
+     */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /**
+     * The format of the corpus.
+     */
+    private Format format;
+
+    /**
+     * The pattern separating a text into features.
+     */
+    private Pattern tokenPattern = Pattern.compile("\\s+");
+
+    /**
+     * The field holding the category of a JSON line.
+     */
+    private String categoryField = "category";
+
+    /**
+     * The field holding the text of a JSON line.
+     */
+    private String textField = "text";
+
+    /**
+     * The number of threads counting chunks.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of characters per chunk.
+     */
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * The charset of corpus files.
+     */
+    private Charset charset = Charset.forName("UTF-8");
+
+    /**
+     * Constructs a new loader for tab separated corpora.
+     */
+    public CorpusLoader() {
+        this(Format.TSV);
+    }
+
+    /**
+     * Constructs a new loader for corpora of the given format.
+     *
+     * @param format The corpus format.
+     */
+    public CorpusLoader(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Retrieves the corpus format.
+     *
+     * @return The corpus format.
+     */
+    public Format getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Sets the corpus format.
+     *
+     * @param format The corpus format.
+     */
+    public void setFormat(Format format) {
+        this.format = format;
+    }
+
+    /**
+     * Retrieves the pattern separating a text into features.
+     *
+     * @return The token pattern.
+     */
+    public Pattern getTokenPattern() {
+        return this.tokenPattern;
+    }
+
+    /**
+     * Sets the pattern separating a text into features. Defaults to
+     * whitespace.
+     *
+     * @param tokenPattern The token pattern.
+     */
+    public void setTokenPattern(Pattern tokenPattern) {
+        this.tokenPattern = tokenPattern;
+    }
+
+    /**
+     * Retrieves the field holding the category of a JSON line.
+     *
+     * @return The category field.
+     */
+    public String getCategoryField() {
+        return this.categoryField;
+    }
+
+    /**
+     * Sets the field holding the category of a JSON line. Defaults to
+     * <code>category</code>.
+     *
+     * @param categoryField The category field.
+     */
+    public void setCategoryField(String categoryField) {
+        this.categoryField = categoryField;
+    }
+
+    /**
+     * Retrieves the field holding the text of a JSON line.
+     *
+     * @return The text field.
+     */
+    public String getTextField() {
+        return this.textField;
+    }
+
+    /**
+     * Sets the field holding the text of a JSON line. Defaults to
+     * <code>text</code>.
+     *
+     * @param textField The text field.
+     */
+    public void setTextField(String textField) {
+        this.textField = textField;
+    }
+
+    /**
+     * Retrieves the number of threads counting chunks.
+     *
+     * @return The number of threads.
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * Sets the number of threads counting chunks. Defaults to the number of
+     * available processors.
+     *
+     * @param threads The number of threads.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive, was " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Retrieves the number of characters per chunk.
+     *
+     * @return The chunk size.
+     */
+    public int getChunkSize() {
+        return this.chunkSize;
+    }
+
+    /**
+     * Sets the number of characters per chunk. A chunk is closed at the end
+     * of the line that reaches this size.
+     *
+     * @param chunkSize The chunk size.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunk size must be positive, was " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Retrieves the charset of corpus files.
+     *
+     * @return The charset.
+     */
+    public Charset getCharset() {
+        return this.charset;
+    }
+
+    /**
+     * Sets the charset of corpus files. Defaults to UTF-8.
+     *
+     * @param charset The charset.
+     */
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    /**
+     * Trains the given classifier from the given corpus file.
+     *
+     * @param target The classifier to train.
+     * @param file The corpus file.
+     * @return The throughput of loading the corpus.
+     * @throws IOException If the file can not be read.
+     */
+    public CorpusStatistics load(Classifier<String, String> target, File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), this.charset);
+        try {
+            return this.load(target, reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Trains the given classifier from the given corpus. The reader is not
+     * closed.
+     *
+     * Each chunk is merged into the classifier as a whole as soon as it is
+     * counted. If a chunk fails, reading stops at the next line. If loading
+     * fails, the pending chunks are cancelled and the method returns only
+     * after all running chunks have finished, but the chunks merged up to
+     * then remain merged into the classifier.
+     *
+     * @param target The classifier to train.
+     * @param reader The corpus.
+     * @return The throughput of loading the corpus.
+     * @throws IOException If the corpus can not be read.
+     */
+    public CorpusStatistics load(final Classifier<String, String> target, Reader reader) throws IOException {
+        final long start = System.nanoTime();
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        final Semaphore readAhead = new Semaphore(this.threads * CHUNKS_PER_THREAD);
+        final List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        long characters = 0;
+        boolean loaded = false;
+
+        try {
+            BufferedReader in = new BufferedReader(reader, 64 * 1024);
+            List<String> chunk = new ArrayList<String>();
+            long chunkCharacters = 0;
+            String line;
+            while (!failed.get() && (line = in.readLine()) != null) {
+                characters += line.length() + 1;
+                chunkCharacters += line.length() + 1;
+                chunk.add(line);
+                if (chunkCharacters >= this.chunkSize) {
+                    results.add(this.submit(executor, readAhead, failed, target, chunk));
+                    chunk = new ArrayList<String>();
+                    chunkCharacters = 0;
+                }
+            }
+            if (!chunk.isEmpty())
+                results.add(this.submit(executor, readAhead, failed, target, chunk));
+
+            long lines = 0;
+            long skippedLines = 0;
+            for (Future<long[]> result : results) {
+                long[] counts = result.get();
+                lines += counts[0];
+                skippedLines += counts[1];
+            }
+            loaded = true;
+            return new CorpusStatistics(lines, skippedLines, characters, results.size(), System.nanoTime() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading corpus");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException("failed to load corpus", e.getCause());
+        } finally {
+            if (!loaded) {
+                for (Future<long[]> result : results)
+                    result.cancel(true);
+            }
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Waits until all running chunks of the given executor have finished, so
+     * no chunk is merged after loading returned. An interruption is deferred
+     * until then.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Submits the given chunk for counting, waiting until fewer than the
+     * allowed number of chunks are pending. A failing chunk sets the given
+     * flag, so reading can stop early.
+     */
+    private Future<long[]> submit(ExecutorService executor, final Semaphore readAhead, final AtomicBoolean failed,
+            final Classifier<String, String> target, final List<String> chunk) throws InterruptedException {
+        readAhead.acquire();
+        try {
+            return executor.submit(new Callable<long[]>() {
+
+                public long[] call() {
+                    boolean counted = false;
+                    try {
+                        long[] counts = CorpusLoader.this.count(target, chunk);
+                        counted = true;
+                        return counts;
+                    } finally {
+                        if (!counted) failed.set(true);
+                        readAhead.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            readAhead.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the given chunk into a partial classifier and merges it into the
+     * target classifier.
+     *
+     * @return The number of learned and skipped lines.
+     */
+    private long[] count(Classifier<String, String> target, List<String> chunk) {
+        final Classifier<String, String> partial = new BayesClassifier<String, String>();
+        final List<String> features = new ArrayList<String>();
+        long lines = 0;
+        long skippedLines = 0;
+        for (String line : chunk) {
+            if (line.trim().isEmpty()) continue;
+            features.clear();
+            String category = this.parse(line, features);
+            if (category == null) {
+                skippedLines++;
+                continue;
+            }
+            for (String feature : features)
+                partial.incrementFeature(feature, category);
+            partial.incrementCategory(category);
+            lines++;
+        }
+        synchronized (target) {
+            if (Thread.currentThread().isInterrupted()) return new long[] { 0, 0 };
+            target.merge(partial);
+        }
+        return new long[] { lines, skippedLines };
+    }
+
+    /**
+     * Parses the given line.
+     *
+     * @param line The line.
+     * @param features The list to add the line's features to.
+     * @return The line's category or <code>null</code> if the line is
+     *         malformed.
+     */
+    private String parse(String line, List<String> features) {
+        if (this.format == Format.TSV) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0) return null;
+            this.tokenize(line.substring(tab + 1), features);
+            return line.substring(0, tab);
+        }
+
+        Object parsed;
+        try {
+            parsed = Json.parse(line);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!(parsed instanceof Map)) return null;
+        Object category = ((Map<?, ?>) parsed).get(this.categoryField);
+        Object text = ((Map<?, ?>) parsed).get(this.textField);
+        if (category == null || text == null) return null;
+        if (text instanceof Collection) {
+            for (Object feature : (Collection<?>) text)
+                if (feature != null) features.add(feature.toString());
+        } else {
+            this.tokenize(text.toString(), features);
+        }
+        return category.toString();
+    }
+
+    private void tokenize(String text, List<String> features) {
+        for (String token : this.tokenPattern.split(text))
+            if (!token.isEmpty()) features.add(token);
+    }
+
+}
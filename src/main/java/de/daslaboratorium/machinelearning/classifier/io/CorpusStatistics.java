@@ -0,0 +1,125 @@
+package de.daslaboratorium.machinelearning.classifier.io;
+
+/**
+ * The throughput of loading a labeled corpus.
+ *
+ * @author Philipp Nolte
+ */
+public class CorpusStatistics {
+
+    /**
+     * The number of lines learned.
+     */
+    private final long lines;
+
+    /**
+     * The number of lines skipped because they could not be parsed.
+     */
+    private final long skippedLines;
+
+    /**
+     * The number of characters read.
+     */
+    private final long characters;
+
+    /**
+     * The number of chunks the corpus was split into.
+     */
+    private final int chunks;
+
+    /**
+     * The elapsed wall-clock time in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * Constructs new corpus statistics.
+     *
+     * @param lines The number of lines learned.
+     * @param skippedLines The number of lines skipped.
+     * @param characters The number of characters read.
+     * @param chunks The number of chunks.
+     * @param elapsedNanos The elapsed time in nanoseconds.
+     */
+    public CorpusStatistics(long lines, long skippedLines, long characters, int chunks, long elapsedNanos) {
+        this.lines = lines;
+        this.skippedLines = skippedLines;
+        this.characters = characters;
+        this.chunks = chunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Retrieves the number of lines learned.
+     *
+     * @return The number of lines learned.
+     */
+    public long getLines() {
+        return this.lines;
+    }
+
+    /**
+     * Retrieves the number of lines skipped because they could not be parsed.
+     *
+     * @return The number of lines skipped.
+     */
+    public long getSkippedLines() {
+        return this.skippedLines;
+    }
+
+    /**
+     * Retrieves the number of characters read, including line separators.
+     *
+     * @return The number of characters read.
+     */
+    public long getCharacters() {
+        return this.characters;
+    }
+
+    /**
+     * Retrieves the number of chunks the corpus was split into.
+     *
+     * @return The number of chunks.
+     */
+    public int getChunks() {
+        return this.chunks;
+    }
+
+    /**
+     * Retrieves the elapsed wall-clock time in nanoseconds.
+     *
+     * @return The elapsed time.
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Retrieves the number of lines learned per second.
+     *
+     * @return The line throughput.
+     */
+    public double getLinesPerSecond() {
+        return (this.elapsedNanos == 0) ? 0 : this.lines * 1e9 / this.elapsedNanos;
+    }
+
+    /**
+     * Retrieves the number of characters read per second.
+     *
+     * @return The character throughput.
+     */
+    public double getCharactersPerSecond() {
+        return (this.elapsedNanos == 0) ? 0 : this.characters * 1e9 / this.elapsedNanos;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "CorpusStatistics [lines=" + this.lines + ", skippedLines=" + this.skippedLines + ", characters="
+                + this.characters + ", chunks=" + this.chunks + ", elapsedMillis=" + this.elapsedNanos / 1000000
+                + ", linesPerSecond=" + (long) this.getLinesPerSecond() + "]";
+    }
+
+}
@@ -0,0 +1,296 @@
+package de.daslaboratorium.machinelearning.classifier.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal JSON reader and writer, just enough for labeled corpora and
+ * classifier payloads. Objects are read as <code>Map&lt;String,
+ * Object&gt;</code>, arrays as <code>List&lt;Object&gt;</code>, numbers as
+ * <code>Double</code> and <code>true</code>, <code>false</code> and
+ * <code>null</code> as <code>Boolean</code> and <code>null</code>. Objects
+ * and arrays may be nested at most {@value #MAX_DEPTH} levels deep.
+ *
+ * @author Philipp Nolte
+ */
+public final class Json {
+
+    /**
+     * The maximum nesting depth of objects and arrays.
+     */
+    public static final int MAX_DEPTH = 512;
+
+    /**
+     * The text being parsed.
+     */
+    private final String text;
+
+    /**
+     * The position of the next character to parse.
+     */
+    private int position;
+
+    /**
+     * The number of objects and arrays enclosing the next value.
+     */
+    private int depth;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses the given JSON text.
+     *
+     * @param text The JSON text.
+     * @return The parsed value.
+     * @throws IllegalArgumentException If the text is not valid JSON or
+     *             nested too deeply.
+     */
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != text.length())
+            throw parser.error("unexpected trailing characters");
+        return value;
+    }
+
+    /**
+     * Writes the given value as compact JSON text. JSON has no
+     * representation of infinite numbers or <code>NaN</code>, so they are
+     * written as <code>null</code>.
+     *
+     * @param value The value, made of maps, collections, strings, numbers,
+     *            booleans and <code>null</code>.
+     * @return The JSON text.
+     */
+    public static String write(Object value) {
+        StringBuilder out = new StringBuilder();
+        write(value, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the given value as compact JSON text. Infinite numbers and
+     * <code>NaN</code> are written as <code>null</code>.
+     *
+     * @param value The value, made of maps, collections, strings, numbers,
+     *            booleans and <code>null</code>.
+     * @param out The builder to append to.
+     */
+    public static void write(Object value, StringBuilder out) {
+        if (value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())
+                || value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite())) {
+            out.append("null");
+        } else if (value == null || value instanceof Boolean || value instanceof Number) {
+            out.append(value);
+        } else if (value instanceof Map) {
+            out.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) out.append(',');
+                first = false;
+                writeString(String.valueOf(entry.getKey()), out);
+                out.append(':');
+                write(entry.getValue(), out);
+            }
+            out.append('}');
+        } else if (value instanceof Collection) {
+            out.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) out.append(',');
+                first = false;
+                write(element, out);
+            }
+            out.append(']');
+        } else {
+            writeString(value.toString(), out);
+        }
+    }
+
+    private static void writeString(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                out.append("\\\"");
+                break;
+            case '\\':
+                out.append("\\\\");
+                break;
+            case '\n':
+                out.append("\\n");
+                break;
+            case '\r':
+                out.append("\\r");
+                break;
+            case '\t':
+                out.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(c);
+                }
+            }
+        }
+        out.append('"');
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + this.position);
+    }
+
+    private void skipWhitespace() {
+        while (this.position < this.text.length()
+                && Character.isWhitespace(this.text.charAt(this.position)))
+            this.position++;
+    }
+
+    private char next() {
+        if (this.position >= this.text.length())
+            throw this.error("unexpected end of input");
+        return this.text.charAt(this.position++);
+    }
+
+    private void expect(String literal) {
+        if (!this.text.startsWith(literal, this.position))
+            throw this.error("expected " + literal);
+        this.position += literal.length();
+    }
+
+    private Object readValue() {
+        this.skipWhitespace();
+        if (this.position >= this.text.length())
+            throw this.error("unexpected end of input");
+        char c = this.text.charAt(this.position);
+        switch (c) {
+        case '{':
+        case '[':
+            if (++this.depth > MAX_DEPTH)
+                throw this.error("nested deeper than " + MAX_DEPTH + " levels");
+            Object nested = (c == '{') ? this.readObject() : this.readArray();
+            this.depth--;
+            return nested;
+        case '"':
+            return this.readString();
+        case 't':
+            this.expect("true");
+            return Boolean.TRUE;
+        case 'f':
+            this.expect("false");
+            return Boolean.FALSE;
+        case 'n':
+            this.expect("null");
+            return null;
+        default:
+            return this.readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.position < this.text.length() && this.text.charAt(this.position) == '}') {
+            this.position++;
+            return object;
+        }
+        while (true) {
+            this.skipWhitespace();
+            if (this.position >= this.text.length() || this.text.charAt(this.position) != '"')
+                throw this.error("expected object key");
+            String key = this.readString();
+            this.skipWhitespace();
+            if (this.next() != ':')
+                throw this.error("expected ':'");
+            object.put(key, this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == '}') return object;
+            if (c != ',') throw this.error("expected ',' or '}'");
+        }
+    }
+
+    private List<Object> readArray() {
+        List<Object> array = new ArrayList<Object>();
+        this.position++;
+        this.skipWhitespace();
+        if (this.position < this.text.length() && this.text.charAt(this.position) == ']') {
+            this.position++;
+            return array;
+        }
+        while (true) {
+            array.add(this.readValue());
+            this.skipWhitespace();
+            char c = this.next();
+            if (c == ']') return array;
+            if (c != ',') throw this.error("expected ',' or ']'");
+        }
+    }
+
+    private String readString() {
+        this.position++;
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            char c = this.next();
+            if (c == '"') return value.toString();
+            if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+            c = this.next();
+            switch (c) {
+            case 'b':
+                value.append('\b');
+                break;
+            case 'f':
+                value.append('\f');
+                break;
+            case 'n':
+                value.append('\n');
+                break;
+            case 'r':
+                value.append('\r');
+                break;
+            case 't':
+                value.append('\t');
+                break;
+            case 'u':
+                if (this.position + 4 > this.text.length())
+                    throw this.error("unexpected end of input");
+                try {
+                    value.append((char) Integer.parseInt(
+                            this.text.substring(this.position, this.position + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw this.error("invalid unicode escape");
+                }
+                this.position += 4;
+                break;
+            default:
+                value.append(c);
+            }
+        }
+    }
+
+    private Double readNumber() {
+        int start = this.position;
+        while (this.position < this.text.length()
+                && "+-0123456789.eE".indexOf(this.text.charAt(this.position)) >= 0)
+            this.position++;
+        try {
+            return Double.valueOf(this.text.substring(start, this.position));
+        } catch (NumberFormatException e) {
+            this.position = start;
+            throw this.error("invalid value");
+        }
+    }
+
+}
@@ -0,0 +1,486 @@
+package de.daslaboratorium.machinelearning.classifier.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.bayes.BayesClassifier;
+import de.daslaboratorium.machinelearning.classifier.io.Json;
+
+/**
+ * An embedded HTTP server exposing a classifier, built on the JDK's HTTP
+ * server. All endpoints accept and return compact JSON:
+ *
+ * <ul>
+ * <li><code>POST /learn</code> with <code>{"category": "positive",
+ * "features": ["I", "love", "sunny", "days"]}</code></li>
+ * <li><code>POST /classify</code> with <code>{"features": [...]}</code>,
+ * answered with <code>{"category": ..., "probability": ...}</code></li>
+ * <li><code>POST /classifyDetailed</code> with <code>{"features":
+ * [...]}</code>, answered with an array of categories and probabilities
+ * ordered by ascending probability</li>
+ * <li><code>POST /learn/batch</code>, <code>/classify/batch</code> and
+ * <code>/classifyDetailed/batch</code> with an array of the above requests,
+ * answered with an array of the above responses</li>
+ * <li><code>GET /metrics</code> with the request count, error count and
+ * latency of every endpoint</li>
+ * </ul>
+ *
+ * Connections are kept alive between requests. Classifications run
+ * concurrently, while learning excludes any other access to the classifier.
+ * A batch is handled under a single lock acquisition.
+ *
+ * Malformed requests are answered with status 400, requests larger than the
+ * maximum request size with status 413 and any other failure with status
+ * 500, which is logged. Errors other than a stack overflow are not answered
+ * but passed on. Every failed request counts as an error in the metrics.
+ *
+ * @author Philipp Nolte
+ */
+public class ClassifierServer {
+
+    /**
+     * The charset of all requests and responses.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The logger of failed requests.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ClassifierServer.class.getName());
+
+    /**
+     * The default maximum size of a request body in bytes.
+     */
+    public static final int DEFAULT_MAX_REQUEST_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The classifier being served.
+     */
+    private final BayesClassifier<String, String> classifier;
+
+    /**
+     * Guards the classifier: learning is exclusive, classifying is shared.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The underlying HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * The executor handling requests.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Whether the executor was created by the server and has to be shut down
+     * with it.
+     */
+    private final boolean ownsExecutor;
+
+    /**
+     * The metrics of every endpoint, keyed by path.
+     */
+    private final Map<String, EndpointMetrics> metrics = new LinkedHashMap<String, EndpointMetrics>();
+
+    /**
+     * The maximum size of a request body in bytes.
+     */
+    private volatile int maxRequestSize = DEFAULT_MAX_REQUEST_SIZE;
+
+    /**
+     * Constructs a new server for the given classifier, handling requests on
+     * a cached thread pool.
+     *
+     * @param classifier The classifier to serve.
+     * @param address The address to bind to. A port of zero picks a free
+     *            port.
+     * @throws IOException If the server can not be bound.
+     */
+    public ClassifierServer(BayesClassifier<String, String> classifier, InetSocketAddress address)
+            throws IOException {
+        this(classifier, address, Executors.newCachedThreadPool(), true);
+    }
+
+    /**
+     * Constructs a new server for the given classifier, handling requests on
+     * the given executor. The executor is not shut down with the server.
+     *
+     * @param classifier The classifier to serve.
+     * @param address The address to bind to. A port of zero picks a free
+     *            port.
+     * @param executor The executor handling requests.
+     * @throws IOException If the server can not be bound.
+     */
+    public ClassifierServer(BayesClassifier<String, String> classifier, InetSocketAddress address,
+            ExecutorService executor) throws IOException {
+        this(classifier, address, executor, false);
+    }
+
+    private ClassifierServer(BayesClassifier<String, String> classifier, InetSocketAddress address,
+            ExecutorService executor, boolean ownsExecutor) throws IOException {
+        this.classifier = classifier;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+
+        this.addEndpoint("/learn", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.learn(Collections.singletonList(request));
+            }
+        });
+        this.addEndpoint("/learn/batch", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.learn(list(request));
+            }
+        });
+        this.addEndpoint("/classify", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.classify(Collections.singletonList(request), false).get(0);
+            }
+        });
+        this.addEndpoint("/classify/batch", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.classify(list(request), false);
+            }
+        });
+        this.addEndpoint("/classifyDetailed", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.classify(Collections.singletonList(request), true).get(0);
+            }
+        });
+        this.addEndpoint("/classifyDetailed/batch", new Operation() {
+
+            public Object apply(Object request) {
+                return ClassifierServer.this.classify(list(request), true);
+            }
+        });
+        this.server.createContext("/metrics", new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                Map<String, Object> body = new LinkedHashMap<String, Object>();
+                for (Map.Entry<String, EndpointMetrics> entry : ClassifierServer.this.metrics.entrySet())
+                    body.put(entry.getKey(), entry.getValue().toMap());
+                try {
+                    respond(exchange, 200, body);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * An operation behind an endpoint, turning the parsed request body into
+     * the response body.
+     */
+    private interface Operation {
+
+        /**
+         * Handles the given request.
+         *
+         * @param request The parsed JSON request.
+         * @return The response, to be written as JSON.
+         * @throws IllegalArgumentException If the request is malformed.
+         */
+        Object apply(Object request);
+    }
+
+    /**
+     * Registers an endpoint accepting POST requests at the given path.
+     */
+    private void addEndpoint(final String path, final Operation operation) {
+        final EndpointMetrics endpointMetrics = new EndpointMetrics();
+        this.metrics.put(path, endpointMetrics);
+        this.server.createContext(path, new HttpHandler() {
+
+            public void handle(HttpExchange exchange) throws IOException {
+                final long start = System.nanoTime();
+                int status = 500;
+                Object response;
+                try {
+                    if (!exchange.getRequestURI().getPath().equals(path)) {
+                        status = 404;
+                        response = error("unknown endpoint");
+                    } else if (!"POST".equals(exchange.getRequestMethod())) {
+                        status = 405;
+                        response = error("method not allowed");
+                    } else {
+                        final int maxSize = ClassifierServer.this.maxRequestSize;
+                        String body = read(exchange, maxSize);
+                        if (body == null) {
+                            status = 413;
+                            response = error("request larger than " + maxSize + " bytes");
+                        } else {
+                            response = operation.apply(Json.parse(body));
+                            status = 200;
+                        }
+                    }
+                } catch (IllegalArgumentException e) {
+                    status = 400;
+                    response = error(e.getMessage());
+                } catch (RuntimeException e) {
+                    status = 500;
+                    response = internalError(path, e);
+                } catch (StackOverflowError e) {
+                    status = 500;
+                    response = internalError(path, e);
+                } catch (Error e) {
+                    endpointMetrics.record(System.nanoTime() - start, true);
+                    exchange.close();
+                    throw e;
+                }
+
+                /*
+                 * The request is recorded before the response is sent, so the
+                 * metrics include it by the time the client received it.
+                 */
+                endpointMetrics.record(System.nanoTime() - start, status != 200);
+                try {
+                    respond(exchange, status, response);
+                } catch (Throwable e) {
+                    if (status == 200) endpointMetrics.recordError();
+                    throw e;
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Logs the given failure of a request and creates the response to it.
+     *
+     * @param path The path of the endpoint.
+     * @param failure The failure.
+     * @return The error response.
+     */
+    private static Map<String, Object> internalError(String path, Throwable failure) {
+        LOGGER.log(Level.SEVERE, "Request to " + path + " failed", failure);
+        return error("internal error");
+    }
+
+    /**
+     * Learns the given requests.
+     *
+     * @param requests The learn requests.
+     * @return The number of classifications learned.
+     */
+    private Map<String, Object> learn(List<?> requests) {
+        final List<String> categories = new ArrayList<String>(requests.size());
+        final List<List<String>> featuresets = new ArrayList<List<String>>(requests.size());
+        for (Object request : requests) {
+            Object category = object(request).get("category");
+            if (!(category instanceof String))
+                throw new IllegalArgumentException("missing category");
+            categories.add((String) category);
+            featuresets.add(features(request));
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            for (int i = 0; i < categories.size(); i++)
+                this.classifier.learn(categories.get(i), featuresets.get(i));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        Map<String, Object> response = new LinkedHashMap<String, Object>();
+        response.put("learned", categories.size());
+        return response;
+    }
+
+    /**
+     * Classifies the given requests.
+     *
+     * @param requests The classify requests.
+     * @param detailed Whether to return the probabilities of all categories.
+     * @return One response per request.
+     */
+    private List<Object> classify(List<?> requests, boolean detailed) {
+        final List<List<String>> featuresets = new ArrayList<List<String>>(requests.size());
+        for (Object request : requests)
+            featuresets.add(features(request));
+
+        final List<Object> responses = new ArrayList<Object>(requests.size());
+        this.lock.readLock().lock();
+        try {
+            for (List<String> features : featuresets) {
+                if (detailed) {
+                    Collection<Classification<String, String>> classifications =
+                            this.classifier.classifyDetailed(features);
+                    List<Object> response = new ArrayList<Object>(classifications.size());
+                    for (Classification<String, String> classification : classifications)
+                        response.add(toMap(classification));
+                    responses.add(response);
+                } else {
+                    responses.add(toMap(this.classifier.classify(features)));
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        return responses;
+    }
+
+    private static Map<String, Object> toMap(Classification<String, String> classification) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("category", (classification == null) ? null : classification.getCategory());
+        map.put("probability", (classification == null) ? null : classification.getProbability());
+        return map;
+    }
+
+    private static Map<String, Object> error(String message) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("error", message);
+        return map;
+    }
+
+    private static List<?> list(Object request) {
+        if (!(request instanceof List))
+            throw new IllegalArgumentException("expected an array of requests");
+        return (List<?>) request;
+    }
+
+    private static Map<?, ?> object(Object request) {
+        if (!(request instanceof Map))
+            throw new IllegalArgumentException("expected an object");
+        return (Map<?, ?>) request;
+    }
+
+    private static List<String> features(Object request) {
+        Object features = object(request).get("features");
+        if (!(features instanceof List))
+            throw new IllegalArgumentException("missing features");
+        List<String> toReturn = new ArrayList<String>(((List<?>) features).size());
+        for (Object feature : (List<?>) features) {
+            if (!(feature instanceof String))
+                throw new IllegalArgumentException("features must be strings");
+            toReturn.add((String) feature);
+        }
+        return toReturn;
+    }
+
+    /**
+     * Reads the request body, unless it is larger than the given size.
+     *
+     * @return The request body or <code>null</code> if it is too large.
+     */
+    private static String read(HttpExchange exchange, int maxSize) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (length != null && Long.parseLong(length.trim()) > maxSize) return null;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid Content-Length");
+        }
+
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) != -1;) {
+            if (body.size() + read > maxSize) return null;
+            body.write(buffer, 0, read);
+        }
+        in.close();
+        return new String(body.toByteArray(), UTF_8);
+    }
+
+    /**
+     * Writes the given response. The exchange is left open for the caller to
+     * close.
+     */
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = Json.write(body).getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Stops serving requests, waiting at most the given number of seconds for
+     * running requests to complete.
+     *
+     * @param delay The maximum number of seconds to wait.
+     */
+    public void stop(int delay) {
+        this.server.stop(delay);
+        if (this.ownsExecutor)
+            this.executor.shutdown();
+    }
+
+    /**
+     * Retrieves the maximum size of a request body.
+     *
+     * @return The maximum request size in bytes.
+     */
+    public int getMaxRequestSize() {
+        return this.maxRequestSize;
+    }
+
+    /**
+     * Sets the maximum size of a request body. Larger requests are answered
+     * with status 413. Defaults to {@value #DEFAULT_MAX_REQUEST_SIZE} bytes.
+     *
+     * @param maxRequestSize The maximum request size in bytes.
+     */
+    public void setMaxRequestSize(int maxRequestSize) {
+        if (maxRequestSize < 1)
+            throw new IllegalArgumentException("max request size must be positive, was " + maxRequestSize);
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Retrieves the address the server is bound to.
+     *
+     * @return The bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    /**
+     * Retrieves the metrics of every endpoint, keyed by path.
+     *
+     * @return The endpoint metrics.
+     */
+    public Map<String, EndpointMetrics> getMetrics() {
+        return Collections.unmodifiableMap(this.metrics);
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.daslaboratorium.machinelearning.classifier.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request count, error count and latency of a single endpoint of the
+ * {@link ClassifierServer}. All methods are thread-safe.
+ *
+ * @author Philipp Nolte
+ */
+public class EndpointMetrics {
+
+    /**
+     * The number of requests handled.
+     */
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * The number of requests answered with an error.
+     */
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * The sum of all request latencies in nanoseconds.
+     */
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    /**
+     * The largest request latency in nanoseconds.
+     */
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a handled request.
+     *
+     * @param nanos The request latency in nanoseconds.
+     * @param error Whether the request was answered with an error.
+     */
+    void record(long nanos, boolean error) {
+        this.requests.incrementAndGet();
+        if (error) this.errors.incrementAndGet();
+        this.totalNanos.addAndGet(nanos);
+        long max = this.maxNanos.get();
+        while (nanos > max && !this.maxNanos.compareAndSet(max, nanos))
+            max = this.maxNanos.get();
+    }
+
+    /**
+     * Records that a request recorded as successful could not be answered.
+     */
+    void recordError() {
+        this.errors.incrementAndGet();
+    }
+
+    /**
+     * Retrieves the number of requests handled.
+     *
+     * @return The number of requests.
+     */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /**
+     * Retrieves the number of requests answered with an error.
+     *
+     * @return The number of errors.
+     */
+    public long getErrors() {
+        return this.errors.get();
+    }
+
+    /**
+     * Retrieves the mean request latency in microseconds.
+     *
+     * @return The mean latency.
+     */
+    public double getMeanLatencyMicros() {
+        final long requests = this.requests.get();
+        return (requests == 0) ? 0 : this.totalNanos.get() / 1000.0 / requests;
+    }
+
+    /**
+     * Retrieves the largest request latency in microseconds.
+     *
+     * @return The maximum latency.
+     */
+    public double getMaxLatencyMicros() {
+        return this.maxNanos.get() / 1000.0;
+    }
+
+    /**
+     * Retrieves the metrics as a map, ready to be written as JSON.
+     *
+     * @return The metrics.
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("requests", this.getRequests());
+        map.put("errors", this.getErrors());
+        map.put("meanLatencyMicros", this.getMeanLatencyMicros());
+        map.put("maxLatencyMicros", this.getMaxLatencyMicros());
+        return map;
+    }
+
+}
@@ -0,0 +1,60 @@
+package de.daslaboratorium.machinelearning.classifier;
+
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CountTableTest {
+
+    @Test
+    public void testCompaction() {
+        final CountTable<String> table = new CountTable<String>(4);
+        final Set<String> keys = table.keySet();
+        for (int i = 0; i < 100; i++)
+            table.put("feature" + i, i);
+        Assert.assertFalse(table.needsCompaction());
+
+        for (int i = 0; i < 80; i++)
+            table.remove("feature" + i);
+        Assert.assertTrue(table.needsCompaction());
+
+        table.startCompaction();
+        Assert.assertFalse(table.needsCompaction());
+        Assert.assertTrue(table.migrate(5));
+        Assert.assertEquals(20, table.size());
+        for (int i = 80; i < 100; i++)
+            Assert.assertEquals(Integer.valueOf(i), table.get("feature" + i));
+
+        // Changes while compacting reach whichever table holds the count.
+        table.put("feature80", 1000);
+        table.remove("feature81");
+        table.put("feature100", 100);
+        Assert.assertEquals(20, table.size());
+        while (table.migrate(5))
+            ;
+        Assert.assertFalse(table.migrate(5));
+
+        Assert.assertEquals(20, table.size());
+        Assert.assertEquals(20, keys.size());
+        Assert.assertTrue(keys.contains("feature100"));
+        Assert.assertFalse(keys.contains("feature81"));
+        Assert.assertEquals(Integer.valueOf(1000), table.get("feature80"));
+        Assert.assertNull(table.get("feature81"));
+        Assert.assertFalse(table.needsCompaction());
+
+        for (int i = 82; i < 98; i++)
+            table.remove("feature" + i);
+        Assert.assertTrue(table.needsCompaction());
+    }
+
+    @Test
+    public void testSmallTableIsNotCompacted() {
+        final CountTable<String> table = new CountTable<String>(32);
+        for (int i = 0; i < 20; i++)
+            table.put("feature" + i, i);
+        for (int i = 0; i < 19; i++)
+            table.remove("feature" + i);
+        Assert.assertFalse(table.needsCompaction());
+    }
+}
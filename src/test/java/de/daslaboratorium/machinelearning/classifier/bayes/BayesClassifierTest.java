@@ -1,12 +1,19 @@
 package de.daslaboratorium.machinelearning.classifier.bayes;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -14,6 +21,8 @@ import org.junit.Test;
 
 import de.daslaboratorium.machinelearning.classifier.Classification;
 import de.daslaboratorium.machinelearning.classifier.Classifier;
+import de.daslaboratorium.machinelearning.classifier.IBulkFeatureProbability;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
 
 public class BayesClassifierTest {
 
@@ -71,8 +80,207 @@ public class BayesClassifierTest {
     }
 
     @Test
-    public void testSerialization() throws IOException {
+    public void testClassifyMatchesDetailedWithManyCategories() {
+        final BayesClassifier<String, String> many = new BayesClassifier<String, String>();
+        for (int i = 0; i < 300; i++)
+            many.learn("category" + (i % 60), Arrays.asList("f" + (i % 7), "g" + (i % 11), "h" + (i % 13)));
+
+        for (int i = 0; i < 20; i++) {
+            final List<String> features = Arrays.asList("f" + (i % 7), "g" + (i % 5), "unknown" + i);
+            final List<Classification<String, String>> details = new ArrayList<Classification<String, String>>(
+                    many.classifyDetailed(features));
+            final Classification<String, String> best = details.get(details.size() - 1);
+
+            Assert.assertEquals(best.getCategory(), many.classify(features).getCategory());
+            Assert.assertEquals(best.getProbability(), many.classify(features).getProbability(), 0);
+        }
+    }
+
+    @Test
+    public void testClassificationCache() {
+        final BayesClassifier<String, String> cached = (BayesClassifier<String, String>) bayes;
+        cached.setCacheCapacity(2);
+
+        final Classification<String, String> first = cached.classify(Arrays.asList("a", "sunny", "day", "day"));
+        final Classification<String, String> second = cached.classify(Arrays.asList("day", "sunny", "day", "a"));
+        Assert.assertEquals(1, cached.getCacheMisses());
+        Assert.assertEquals(1, cached.getCacheHits());
+        Assert.assertEquals(first.getCategory(), second.getCategory());
+        Assert.assertEquals(first.getProbability(), second.getProbability(), 0);
+        Assert.assertEquals(Arrays.asList("day", "sunny", "day", "a"), second.getFeatureset());
+
+        cached.classifyDetailed(Arrays.asList("a", "sunny", "day"));
+        Assert.assertEquals(2, cached.getCacheMisses());
+
+        cached.learn(CATEGORY_NEGATIVE, Arrays.asList("a", "sunny", "day", "day"));
+        final Classification<String, String> third = cached.classify(Arrays.asList("a", "sunny", "day", "day"));
+        Assert.assertEquals(3, cached.getCacheMisses());
+        Assert.assertEquals(1, cached.getCacheHits());
+        Assert.assertNotEquals(first.getProbability(), third.getProbability(), EPSILON);
+
+        // A new category replaces the categories shared by the cache entries.
+        cached.learn("neutral", Arrays.asList("day"));
+        Assert.assertEquals(3, cached.classifyDetailed(Arrays.asList("a", "sunny", "day")).size());
+        Assert.assertEquals(3, cached.classifyDetailed(Arrays.asList("a", "sunny", "day")).size());
+        Assert.assertEquals(2, cached.getCacheHits());
+    }
+
+    @Test
+    public void testCompactionAfterForgetting() {
+        final BayesClassifier<String, String> bayes = new BayesClassifier<String, String>();
+        final Set<String> features = bayes.getFeatures();
+        bayes.setMemoryCapacity(2000);
+        for (int i = 0; i < 2000; i++)
+            bayes.learn(i % 2 == 0 ? CATEGORY_POSITIVE : CATEGORY_NEGATIVE, Arrays.asList("f" + i));
+        for (int i = 300; i < 2000; i++)
+            bayes.decrementFeature("f" + i, i % 2 == 0 ? CATEGORY_POSITIVE : CATEGORY_NEGATIVE);
+
+        // The total counts are moved in two steps, the counts stay visible.
+        Assert.assertTrue(bayes.compactStep());
+        Assert.assertTrue(bayes.compactStep());
+        Assert.assertEquals(1, bayes.getFeatureCount("f0"));
+        Assert.assertEquals(1, bayes.getFeatureCount("f299"));
+        Assert.assertEquals(300, features.size());
+        Assert.assertTrue(bayes.compactStep());
+        bayes.compact();
+        Assert.assertFalse(bayes.compactStep());
+
+        Assert.assertEquals(300, features.size());
+        Assert.assertTrue(features.contains("f299"));
+        Assert.assertFalse(features.contains("f300"));
+        Assert.assertEquals(1, bayes.getFeatureCount("f0", CATEGORY_POSITIVE));
+        Assert.assertEquals(0, bayes.getFeatureCount("f0", CATEGORY_NEGATIVE));
+        Assert.assertEquals(1, bayes.getFeatureCount("f299", CATEGORY_NEGATIVE));
+        Assert.assertEquals(0, bayes.getFeatureCount("f300", CATEGORY_POSITIVE));
+        Assert.assertEquals(2000, bayes.getCategoriesTotal());
+
+        bayes.learn(CATEGORY_POSITIVE, Arrays.asList("sunny"));
+        Assert.assertEquals(CATEGORY_POSITIVE, bayes.classify(Arrays.asList("sunny")).getCategory());
+    }
+
+    @Test
+    public void testBulkFeatureProbabilityCalculator() {
+        final BayesClassifier<String, String> classifier = (BayesClassifier<String, String>) bayes;
+        final List<String> features = Arrays.asList("today is a sunny day".split("\\s"));
+        final List<Classification<String, String>> expected = new ArrayList<Classification<String, String>>(
+                classifier.classifyDetailed(features));
+
+        final int[] bulkCalls = new int[1];
+        classifier.setFeatureProbabilityCalculator(new IBulkFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                throw new AssertionError("the bulk contract should be used");
+            }
+
+            public void featureProbabilities(String feature, List<String> categories, float[] probabilities) {
+                bulkCalls[0]++;
+                bayes.featureProbabilities(feature, categories, probabilities);
+            }
+        });
+        final List<Classification<String, String>> actual = new ArrayList<Classification<String, String>>(
+                classifier.classifyDetailed(features));
+
+        Assert.assertEquals(features.size(), bulkCalls[0]);
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getCategory(), actual.get(i).getCategory());
+            Assert.assertEquals(expected.get(i).getProbability(), actual.get(i).getProbability(), 0);
+        }
+
+        classifier.setFeatureProbabilityCalculator(new IFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                return 1.0f;
+            }
+        });
+        Assert.assertEquals(0.5f * 0.75f * 0.5f * 0.5f * 0.5f * 0.5f,
+                classifier.classify(features).getProbability(), EPSILON);
+    }
+
+    @Test
+    public void testOverriddenFeatureProbability() {
+        final BayesClassifier<String, String> probability = new BayesClassifier<String, String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public float featureProbability(String feature, String category) {
+                return CATEGORY_NEGATIVE.equals(category) ? 1.0f : 0.0f;
+            }
+        };
+        final BayesClassifier<String, String> average = new BayesClassifier<String, String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public float featureWeighedAverage(String feature, String category) {
+                return CATEGORY_NEGATIVE.equals(category) ? 0.9f : 0.1f;
+            }
+        };
+        for (Classifier<String, String> classifier : Arrays.<Classifier<String, String>>asList(probability, average)) {
+            classifier.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny days".split("\\s")));
+            classifier.learn(CATEGORY_NEGATIVE, Arrays.asList("I hate rain".split("\\s")));
+            Assert.assertEquals(CATEGORY_NEGATIVE, classifier.classify(Arrays.asList("sunny")).getCategory());
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
 
         new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(bayes);
+
+        final BayesClassifier<String, String> classifier = (BayesClassifier<String, String>) bayes;
+        classifier.setFeatureProbabilityCalculator(new IFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                return 1.0f;
+            }
+        });
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(classifier);
+        @SuppressWarnings("unchecked")
+        final BayesClassifier<String, String> restored = (BayesClassifier<String, String>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        Assert.assertNull(restored.getFeatureProbabilityCalculator());
+        Assert.assertEquals(CATEGORY_POSITIVE, restored.classify(Arrays.asList("sunny")).getCategory());
+    }
+
+    @Test
+    public void testDeserializationWithoutCompactionState() throws Exception {
+
+        /*
+         * Classifiers serialized before the feature dictionaries were
+         * compacted carry no compaction state and plain Hashtables.
+         */
+        final BayesClassifier<String, String> classifier = new BayesClassifier<String, String>();
+        classifier.setMemoryCapacity(2);
+        classifier.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny days".split("\\s")));
+        classifier.learn(CATEGORY_NEGATIVE, Arrays.asList("I hate rain".split("\\s")));
+        final Field pendingCompactions = Classifier.class.getDeclaredField("pendingCompactions");
+        pendingCompactions.setAccessible(true);
+        pendingCompactions.set(classifier, null);
+        final Field totalFeatureCount = Classifier.class.getDeclaredField("totalFeatureCount");
+        totalFeatureCount.setAccessible(true);
+        @SuppressWarnings("unchecked")
+        final Dictionary<String, Integer> counts = (Dictionary<String, Integer>) totalFeatureCount.get(classifier);
+        final Hashtable<String, Integer> plainCounts = new Hashtable<String, Integer>();
+        for (Enumeration<String> features = counts.keys(); features.hasMoreElements();) {
+            final String feature = features.nextElement();
+            plainCounts.put(feature, counts.get(feature));
+        }
+        totalFeatureCount.set(classifier, plainCounts);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ObjectOutputStream(bytes).writeObject(classifier);
+        @SuppressWarnings("unchecked")
+        final BayesClassifier<String, String> restored = (BayesClassifier<String, String>) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+
+        // Learning forgets the old classifications and their features.
+        restored.learn(CATEGORY_POSITIVE, Arrays.asList("warm sunny days".split("\\s")));
+        restored.learn(CATEGORY_NEGATIVE, Arrays.asList("cold rain".split("\\s")));
+        restored.learn(CATEGORY_NEGATIVE, Arrays.asList("cold wind".split("\\s")));
+        restored.compact();
+        Assert.assertEquals(0, restored.getFeatureCount("love", CATEGORY_POSITIVE));
+        Assert.assertEquals(CATEGORY_NEGATIVE, restored.classify(Arrays.asList("cold")).getCategory());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
+
+public class CompactBayesClassifierTest {
+
+    private static final double EPSILON = 0.001;
+    private static final String CATEGORY_NEGATIVE = "negative";
+    private static final String CATEGORY_POSITIVE = "positive";
+
+    @Test
+    public void testMatchesFullPrecisionWithinTolerance() {
+        final Random random = new Random(42);
+        final BayesClassifier<String, String> full = new BayesClassifier<String, String>();
+        for (int i = 0; i < 1000; i++) {
+            final int category = random.nextInt(20);
+            final List<String> features = new ArrayList<String>();
+            for (int j = 0; j < 8; j++)
+                features.add("f" + (category * 50 + random.nextInt(400)) % 2000);
+            full.learn("c" + category, features);
+        }
+
+        for (int precision : new int[] { 8, 16 }) {
+            final CompactBayesClassifier<String, String> compact =
+                    new CompactBayesClassifier<String, String>(full, precision);
+            Assert.assertEquals(full.getFeatures().size(), compact.getFeatureCount());
+
+            for (int i = 0; i < 200; i++) {
+                final List<String> features = new ArrayList<String>();
+                for (int j = 0; j < 5; j++)
+                    features.add("f" + random.nextInt(2200));
+
+                final double tolerance = features.size() * compact.getQuantizationStep() / 2 + 1e-4;
+                final Collection<Classification<String, String>> expected = full.classifyDetailed(features);
+                final Collection<Classification<String, String>> actual = compact.classifyDetailed(features);
+                Assert.assertEquals(expected.size(), actual.size());
+
+                final Classification<String, String> best = full.classify(features);
+                final Classification<String, String> compactBest = compact.classify(features);
+                double compactBestInFull = Double.NaN;
+                for (Iterator<Classification<String, String>> it = expected.iterator(); it.hasNext();) {
+                    Classification<String, String> classification = it.next();
+                    if (classification.getCategory().equals(compactBest.getCategory()))
+                        compactBestInFull = Math.log(classification.getProbability());
+                }
+                Assert.assertEquals(Math.log(best.getProbability()), Math.log(compactBest.getProbability()),
+                        tolerance);
+                Assert.assertTrue(Math.log(best.getProbability()) - compactBestInFull <= 2 * tolerance);
+            }
+
+            Assert.assertTrue(compact.getMemoryUsagePerFeature() < ((precision == 8) ? 18 : 28));
+        }
+    }
+
+    @Test
+    public void testFeatureProbabilityCalculator() {
+        final BayesClassifier<String, String> full = new BayesClassifier<String, String>();
+        full.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny".split("\\s")));
+        full.learn(CATEGORY_NEGATIVE, Arrays.asList("I hate rain".split("\\s")));
+        full.setFeatureProbabilityCalculator(new IFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                return CATEGORY_NEGATIVE.equals(category) ? 1.0f : 0.0f;
+            }
+        });
+        final List<String> features = Arrays.asList("sunny");
+        Assert.assertEquals(CATEGORY_NEGATIVE, full.classify(features).getCategory());
+
+        for (int precision : new int[] { 8, 16 }) {
+            final CompactBayesClassifier<String, String> compact =
+                    new CompactBayesClassifier<String, String>(full, precision);
+            final Classification<String, String> classification = compact.classify(features);
+            Assert.assertEquals(CATEGORY_NEGATIVE, classification.getCategory());
+            Assert.assertEquals(Math.log(full.classify(features).getProbability()),
+                    Math.log(classification.getProbability()), compact.getQuantizationStep() / 2 + 1e-4);
+        }
+    }
+
+    @Test
+    public void testEmptyClassifier() {
+        final CompactBayesClassifier<String, String> compact =
+                new CompactBayesClassifier<String, String>(new BayesClassifier<String, String>());
+
+        Assert.assertNull(compact.classify(Arrays.asList("unknown")));
+        Assert.assertEquals(0, compact.getMemoryUsagePerFeature(), EPSILON);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecision() {
+        new CompactBayesClassifier<String, String>(new BayesClassifier<String, String>(), 12);
+    }
+
+    @Test
+    public void testSerialization() throws IOException {
+        final BayesClassifier<String, String> bayes = new BayesClassifier<String, String>();
+        bayes.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny days".split("\\s")));
+
+        new ObjectOutputStream(new ByteArrayOutputStream()).writeObject(new CompactBayesClassifier<String, String>(bayes));
+    }
+}
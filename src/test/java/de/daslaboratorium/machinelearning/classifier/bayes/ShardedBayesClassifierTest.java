@@ -0,0 +1,179 @@
+package de.daslaboratorium.machinelearning.classifier.bayes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.IBulkFeatureProbability;
+import de.daslaboratorium.machinelearning.classifier.IFeatureProbability;
+
+public class ShardedBayesClassifierTest {
+
+    private static final String CATEGORY_NEGATIVE = "negative";
+    private static final String CATEGORY_POSITIVE = "positive";
+
+    @Test
+    public void testStringClassification() {
+        final ShardedBayesClassifier<String, String> sharded = new ShardedBayesClassifier<String, String>(2);
+        sharded.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny days".split("\\s")));
+        sharded.learn(CATEGORY_NEGATIVE, Arrays.asList("I hate rain".split("\\s")));
+
+        Assert.assertEquals(CATEGORY_POSITIVE,
+                sharded.classify(Arrays.asList("today is a sunny day".split("\\s"))).getCategory());
+        Assert.assertEquals(CATEGORY_NEGATIVE,
+                sharded.classify(Arrays.asList("there will be rain".split("\\s"))).getCategory());
+        Assert.assertNull(new ShardedBayesClassifier<String, String>(3).classify(Arrays.asList("rain")));
+    }
+
+    @Test
+    public void testMatchesUnshardedClassifier() {
+        final Random random = new Random(3);
+        final BayesClassifier<String, String> unsharded = new BayesClassifier<String, String>();
+        final ShardedBayesClassifier<String, String> sharded = new ShardedBayesClassifier<String, String>(4);
+        unsharded.setMemoryCapacity(300);
+        sharded.setMemoryCapacity(300);
+        for (int i = 0; i < 1000; i++) {
+            final String category = "c" + random.nextInt(40);
+            final List<String> features = new ArrayList<String>();
+            for (int j = 0; j < 5; j++)
+                features.add("f" + random.nextInt(200));
+            unsharded.learn(category, features);
+            sharded.learn(category, features);
+        }
+
+        Assert.assertEquals(unsharded.getCategories(), sharded.getCategories());
+        Assert.assertEquals(unsharded.getCategoriesTotal(), sharded.getCategoriesTotal());
+        Assert.assertEquals(unsharded.getFeatureCount("f7"), sharded.getFeatureCount("f7"));
+
+        for (int i = 0; i < 50; i++) {
+            final List<String> features = Arrays.asList("f" + random.nextInt(220), "f" + random.nextInt(220),
+                    "f" + random.nextInt(220));
+            final Map<String, Float> expected = new HashMap<String, Float>();
+            for (Classification<String, String> classification : unsharded.classifyDetailed(features))
+                expected.put(classification.getCategory(), classification.getProbability());
+
+            final Collection<Classification<String, String>> detailed = sharded.classifyDetailed(features);
+            Assert.assertEquals(expected.size(), detailed.size());
+            for (Classification<String, String> classification : detailed)
+                Assert.assertEquals(expected.get(classification.getCategory()), classification.getProbability(), 0);
+
+            final List<Classification<String, String>> top = sharded.classify(features, 5);
+            Assert.assertEquals(5, top.size());
+            Assert.assertEquals(unsharded.classify(features).getProbability(), top.get(0).getProbability(), 0);
+            for (int j = 1; j < top.size(); j++)
+                Assert.assertTrue(top.get(j - 1).getProbability() >= top.get(j).getProbability());
+        }
+    }
+
+    @Test
+    public void testFeatureProbabilityCalculator() {
+        final Random random = new Random(5);
+        final BayesClassifier<String, String> unsharded = new BayesClassifier<String, String>();
+        final ShardedBayesClassifier<String, String> sharded = new ShardedBayesClassifier<String, String>(3);
+        for (int i = 0; i < 300; i++) {
+            final String category = "c" + random.nextInt(20);
+            final List<String> features = Arrays.asList("f" + random.nextInt(50), "f" + random.nextInt(50));
+            unsharded.learn(category, features);
+            sharded.learn(category, features);
+        }
+
+        final IFeatureProbability<String, String> calculator = new IFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                return ((feature.hashCode() * 31 + category.hashCode()) & 7) / 8.0f;
+            }
+        };
+        final IBulkFeatureProbability<String, String> bulkCalculator = new IBulkFeatureProbability<String, String>() {
+
+            public float featureProbability(String feature, String category) {
+                throw new AssertionError("the bulk contract should be used");
+            }
+
+            public void featureProbabilities(String feature, List<String> categories, float[] probabilities) {
+                for (int i = 0; i < categories.size(); i++)
+                    probabilities[i] = calculator.featureProbability(feature, categories.get(i));
+            }
+        };
+        final List<String> features = Arrays.asList("f1", "f2", "f60");
+        unsharded.setFeatureProbabilityCalculator(calculator);
+        final Map<String, Float> expected = new HashMap<String, Float>();
+        for (Classification<String, String> classification : unsharded.classifyDetailed(features))
+            expected.put(classification.getCategory(), classification.getProbability());
+
+        for (IFeatureProbability<String, String> used : Arrays.asList(calculator, bulkCalculator)) {
+            sharded.setFeatureProbabilityCalculator(used);
+            Assert.assertSame(used, sharded.getFeatureProbabilityCalculator());
+            final Collection<Classification<String, String>> detailed = sharded.classifyDetailed(features);
+            Assert.assertEquals(expected.size(), detailed.size());
+            for (Classification<String, String> classification : detailed)
+                Assert.assertEquals(expected.get(classification.getCategory()), classification.getProbability(), 0);
+        }
+    }
+
+    @Test
+    public void testMoreCategoriesRequestedThanKnown() {
+        final ShardedBayesClassifier<String, String> sharded = new ShardedBayesClassifier<String, String>(2);
+        sharded.learn(CATEGORY_POSITIVE, Arrays.asList("I love sunny days".split("\\s")));
+        sharded.learn(CATEGORY_NEGATIVE, Arrays.asList("I hate rain".split("\\s")));
+
+        final List<Classification<String, String>> top = sharded.classify(Arrays.asList("sunny"), Integer.MAX_VALUE);
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals(CATEGORY_POSITIVE, top.get(0).getCategory());
+        Assert.assertEquals(CATEGORY_NEGATIVE, top.get(1).getCategory());
+    }
+
+    @Test
+    public void testConcurrentLearning() throws InterruptedException {
+        final ShardedBayesClassifier<String, String> sharded = new ShardedBayesClassifier<String, String>(4);
+        final BayesClassifier<String, String> unsharded = new BayesClassifier<String, String>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        sharded.setMemoryCapacity(10000);
+        unsharded.setMemoryCapacity(10000);
+        for (int t = 0; t < 4; t++) {
+            final Random random = new Random(t);
+            final List<String> categories = new ArrayList<String>();
+            final List<List<String>> featuresets = new ArrayList<List<String>>();
+            for (int i = 0; i < 2000; i++) {
+                categories.add("c" + t + "-" + random.nextInt(10));
+                featuresets.add(Arrays.asList("f" + random.nextInt(100), "f" + random.nextInt(100)));
+                unsharded.learn(categories.get(i), featuresets.get(i));
+            }
+            threads.add(new Thread(new Runnable() {
+
+                public void run() {
+                    try {
+                        for (int i = 0; i < categories.size(); i++) {
+                            sharded.learn(categories.get(i), featuresets.get(i));
+                            if (i % 100 == 0) sharded.classify(Arrays.asList("f1", "f2"), 3);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        Assert.assertTrue(failures.isEmpty());
+        Assert.assertEquals(unsharded.getCategoriesTotal(), sharded.getCategoriesTotal());
+        Assert.assertEquals(unsharded.getFeatureCount("f7"), sharded.getFeatureCount("f7"));
+        final Map<String, Float> expected = new HashMap<String, Float>();
+        for (Classification<String, String> classification : unsharded.classifyDetailed(Arrays.asList("f1", "f2")))
+            expected.put(classification.getCategory(), classification.getProbability());
+        for (Classification<String, String> classification : sharded.classifyDetailed(Arrays.asList("f1", "f2")))
+            Assert.assertEquals(expected.get(classification.getCategory()), classification.getProbability(), 0);
+    }
+}
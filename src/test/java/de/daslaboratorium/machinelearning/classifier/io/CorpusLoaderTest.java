@@ -0,0 +1,191 @@
+package de.daslaboratorium.machinelearning.classifier.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.daslaboratorium.machinelearning.classifier.Classifier;
+import de.daslaboratorium.machinelearning.classifier.bayes.BayesClassifier;
+
+public class CorpusLoaderTest {
+
+    @Test
+    public void testTsvMatchesSequentialCounting() throws IOException {
+        final Random random = new Random(7);
+        final StringBuilder corpus = new StringBuilder();
+        final Classifier<String, String> expected = new BayesClassifier<String, String>();
+        for (int i = 0; i < 2000; i++) {
+            final String category = "c" + random.nextInt(5);
+            final StringBuilder text = new StringBuilder();
+            for (int j = 0; j < 6; j++) {
+                final String feature = "w" + random.nextInt(300);
+                text.append(' ').append(feature);
+                expected.incrementFeature(feature, category);
+            }
+            expected.incrementCategory(category);
+            corpus.append(category).append('\t').append(text).append('\n');
+        }
+        corpus.append("malformed line without tab\n\n");
+
+        final CorpusLoader loader = new CorpusLoader();
+        loader.setThreads(4);
+        loader.setChunkSize(1000);
+        final Classifier<String, String> actual = new BayesClassifier<String, String>();
+        final CorpusStatistics statistics = loader.load(actual, new StringReader(corpus.toString()));
+
+        Assert.assertEquals(2000, statistics.getLines());
+        Assert.assertEquals(1, statistics.getSkippedLines());
+        Assert.assertEquals(corpus.length(), statistics.getCharacters());
+        Assert.assertTrue(statistics.getChunks() > 1);
+        Assert.assertEquals(expected.getCategories(), actual.getCategories());
+        Assert.assertEquals(expected.getFeatures(), actual.getFeatures());
+        Assert.assertEquals(expected.getCategoriesTotal(), actual.getCategoriesTotal());
+        for (String category : expected.getCategories()) {
+            Assert.assertEquals(expected.getCategoryCount(category), actual.getCategoryCount(category));
+            for (String feature : expected.getFeatures())
+                Assert.assertEquals(expected.getFeatureCount(feature, category),
+                        actual.getFeatureCount(feature, category));
+        }
+    }
+
+    @Test
+    public void testJsonLinesFile() throws IOException {
+        final File file = File.createTempFile("corpus", ".jsonl");
+        file.deleteOnExit();
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write("{\"category\":\"positive\",\"text\":\"I love sunny days\"}\n");
+        writer.write("{\"category\":\"negative\",\"text\":[\"I\",\"hate\",\"rain\"]}\n");
+        writer.write("{\"text\":\"no category\"}\n");
+        writer.write("not json\n");
+        writer.close();
+
+        final BayesClassifier<String, String> bayes = new BayesClassifier<String, String>();
+        final CorpusStatistics statistics = new CorpusLoader(CorpusLoader.Format.JSONL).load(bayes, file);
+
+        Assert.assertEquals(2, statistics.getLines());
+        Assert.assertEquals(2, statistics.getSkippedLines());
+        Assert.assertEquals(2, bayes.getFeatureCount("I"));
+        Assert.assertEquals("positive",
+                bayes.classify(Arrays.asList("today is a sunny day".split("\\s"))).getCategory());
+        Assert.assertEquals("negative",
+                bayes.classify(Arrays.asList("there will be rain".split("\\s"))).getCategory());
+    }
+
+    /**
+     * A classifier recording its merges, which can block until interrupted
+     * or fail.
+     */
+    private static class RecordingClassifier extends BayesClassifier<String, String> {
+
+        private static final long serialVersionUID = 1L;
+        private final AtomicInteger merges = new AtomicInteger();
+        private final AtomicInteger finishedMerges = new AtomicInteger();
+        private final boolean blockMerges;
+        private final boolean failMerges;
+
+        RecordingClassifier(boolean blockMerges, boolean failMerges) {
+            this.blockMerges = blockMerges;
+            this.failMerges = failMerges;
+        }
+
+        @Override
+        public void merge(Classifier<String, String> other) {
+            this.merges.incrementAndGet();
+            try {
+                if (this.failMerges)
+                    throw new IllegalStateException("merge failed");
+                if (this.blockMerges) {
+                    try {
+                        new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                super.merge(other);
+            } finally {
+                this.finishedMerges.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * A corpus of the given number of lines, failing with an
+     * <code>IOException</code> after the given number of lines.
+     */
+    private static class LineReader extends Reader {
+
+        private final int lines;
+        private final int failAt;
+        private int read = 0;
+
+        LineReader(int lines, int failAt) {
+            this.lines = lines;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (this.read == this.failAt)
+                throw new IOException("disk gone");
+            if (this.read == this.lines)
+                return -1;
+            final char[] line = ("c" + (this.read++ % 3) + "\ta b c d e f g h\n").toCharArray();
+            final int count = Math.min(length, line.length);
+            System.arraycopy(line, 0, buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testFailedReadStopsMerging() {
+        final CorpusLoader loader = new CorpusLoader();
+        loader.setThreads(4);
+        loader.setChunkSize(100);
+        final RecordingClassifier bayes = new RecordingClassifier(true, false);
+        try {
+            loader.load(bayes, new LineReader(Integer.MAX_VALUE, 30));
+            Assert.fail("expected the read failure");
+        } catch (IOException e) {
+            Assert.assertEquals("disk gone", e.getMessage());
+        }
+
+        // Every merge that started was abandoned before load returned.
+        Assert.assertTrue(bayes.merges.get() > 0);
+        Assert.assertEquals(bayes.merges.get(), bayes.finishedMerges.get());
+        Assert.assertEquals(0, bayes.getCategoriesTotal());
+    }
+
+    @Test
+    public void testFailedChunkStopsReading() throws IOException {
+        final CorpusLoader loader = new CorpusLoader();
+        loader.setThreads(2);
+        loader.setChunkSize(100);
+        final RecordingClassifier bayes = new RecordingClassifier(false, true);
+        final LineReader corpus = new LineReader(1000000, -1);
+        try {
+            loader.load(bayes, corpus);
+            Assert.fail("expected the merge failure");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("merge failed", e.getMessage());
+        }
+
+        Assert.assertTrue(corpus.read < 10000);
+        Assert.assertEquals(bayes.merges.get(), bayes.finishedMerges.get());
+    }
+}
@@ -0,0 +1,64 @@
+package de.daslaboratorium.machinelearning.classifier.io;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonTest {
+
+    @Test
+    public void testRoundTrip() {
+        final Map<String, Object> object = new LinkedHashMap<String, Object>();
+        object.put("category", "quote \" and \\ and \n");
+        object.put("features", Arrays.asList("a", "b"));
+        object.put("probability", 0.5);
+        object.put("empty", null);
+
+        final String text = Json.write(object);
+        Assert.assertEquals("{\"category\":\"quote \\\" and \\\\ and \\n\",\"features\":[\"a\",\"b\"],"
+                + "\"probability\":0.5,\"empty\":null}", text);
+        Assert.assertEquals(object, Json.parse(text));
+    }
+
+    @Test
+    public void testParse() {
+        final Object parsed = Json.parse(" [ true, false, null, -1.5e2, \"\\u0041\", {} ] ");
+        Assert.assertEquals(Arrays.asList(true, false, null, -150.0, "A", new LinkedHashMap<String, Object>()),
+                (List<?>) parsed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMalformed() {
+        Json.parse("{\"category\" \"positive\"}");
+    }
+
+    @Test
+    public void testNestingDepth() {
+        final StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < Json.MAX_DEPTH; i++)
+            nested.append('[');
+        for (int i = 0; i < Json.MAX_DEPTH; i++)
+            nested.append(']');
+        Assert.assertNotNull(Json.parse(nested.toString()));
+
+        final StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 200000; i++)
+            deep.append('[');
+        try {
+            Json.parse(deep.toString());
+            Assert.fail("expected the nesting to be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().startsWith("nested deeper than"));
+        }
+    }
+
+    @Test
+    public void testWriteNonFiniteNumbers() {
+        Assert.assertEquals("[null,null,null,1.5]",
+                Json.write(Arrays.asList(Double.NaN, Float.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1.5)));
+    }
+}
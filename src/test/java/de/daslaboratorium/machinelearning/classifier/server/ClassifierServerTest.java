@@ -0,0 +1,223 @@
+package de.daslaboratorium.machinelearning.classifier.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.daslaboratorium.machinelearning.classifier.Classification;
+import de.daslaboratorium.machinelearning.classifier.bayes.BayesClassifier;
+import de.daslaboratorium.machinelearning.classifier.io.Json;
+
+public class ClassifierServerTest {
+
+    private static final double EPSILON = 0.001;
+    private ClassifierServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ClassifierServer(new BayesClassifier<String, String>(),
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private Object request(String method, String path, String body, int expectedStatus) throws IOException {
+        final URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            final OutputStream out = connection.getOutputStream();
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+        }
+        Assert.assertEquals(expectedStatus, connection.getResponseCode());
+        final InputStream in = (expectedStatus < 400) ? connection.getInputStream() : connection.getErrorStream();
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        for (int read; (read = in.read(buffer)) != -1;)
+            response.write(buffer, 0, read);
+        in.close();
+        return Json.parse(new String(response.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testLearnAndClassify() throws IOException {
+        Assert.assertEquals(1.0, ((Map<?, ?>) request("POST", "/learn",
+                "{\"category\":\"positive\",\"features\":[\"I\",\"love\",\"sunny\",\"days\"]}", 200)).get("learned"));
+        Assert.assertEquals(1.0, ((Map<?, ?>) request("POST", "/learn/batch",
+                "[{\"category\":\"negative\",\"features\":[\"I\",\"hate\",\"rain\"]}]", 200)).get("learned"));
+
+        final Map<?, ?> classification = (Map<?, ?>) request("POST", "/classify",
+                "{\"features\":[\"today\",\"is\",\"a\",\"sunny\",\"day\"]}", 200);
+        Assert.assertEquals("positive", classification.get("category"));
+        Assert.assertEquals(0.0234375, (Double) classification.get("probability"), EPSILON);
+
+        final List<?> batch = (List<?>) request("POST", "/classify/batch",
+                "[{\"features\":[\"sunny\"]},{\"features\":[\"there\",\"will\",\"be\",\"rain\"]}]", 200);
+        Assert.assertEquals("positive", ((Map<?, ?>) batch.get(0)).get("category"));
+        Assert.assertEquals("negative", ((Map<?, ?>) batch.get(1)).get("category"));
+
+        final List<?> detailed = (List<?>) request("POST", "/classifyDetailed",
+                "{\"features\":[\"today\",\"is\",\"a\",\"sunny\",\"day\"]}", 200);
+        Assert.assertEquals("negative", ((Map<?, ?>) detailed.get(0)).get("category"));
+        Assert.assertEquals("positive", ((Map<?, ?>) detailed.get(1)).get("category"));
+
+        final List<?> detailedBatch = (List<?>) request("POST", "/classifyDetailed/batch",
+                "[{\"features\":[\"rain\"]}]", 200);
+        Assert.assertEquals(1, detailedBatch.size());
+        Assert.assertEquals(2, ((List<?>) detailedBatch.get(0)).size());
+    }
+
+    @Test
+    public void testErrorsAndMetrics() throws IOException {
+        request("POST", "/classify", "{\"features\":", 400);
+        request("POST", "/learn", "{\"features\":[\"rain\"]}", 400);
+        request("GET", "/classify", null, 405);
+        request("POST", "/classify", "{\"features\":[\"rain\"]}", 200);
+
+        Assert.assertEquals(3, server.getMetrics().get("/classify").getRequests());
+        Assert.assertEquals(2, server.getMetrics().get("/classify").getErrors());
+        Assert.assertEquals(1, server.getMetrics().get("/learn").getErrors());
+
+        final Map<?, ?> metrics = (Map<?, ?>) request("GET", "/metrics", null, 200);
+        Assert.assertEquals(3.0, ((Map<?, ?>) metrics.get("/classify")).get("requests"));
+        Assert.assertEquals(0.0, ((Map<?, ?>) metrics.get("/learn/batch")).get("requests"));
+    }
+
+    @Test
+    public void testRejectedRequests() throws IOException {
+        final StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 200000; i++)
+            deep.append('[');
+        server.setMaxRequestSize(deep.length());
+        Assert.assertTrue(((String) ((Map<?, ?>) request("POST", "/classify", deep.toString(), 400))
+                .get("error")).startsWith("nested deeper than"));
+
+        server.setMaxRequestSize(100);
+        final StringBuilder large = new StringBuilder("{\"features\":[");
+        for (int i = 0; i < 20; i++)
+            large.append("\"rain\",");
+        large.append("\"rain\"]}");
+        request("POST", "/classify", large.toString(), 413);
+        request("POST", "/classify", "{\"features\":[\"rain\"]}", 200);
+
+        Assert.assertEquals(3, server.getMetrics().get("/classify").getRequests());
+        Assert.assertEquals(2, server.getMetrics().get("/classify").getErrors());
+    }
+
+    @Test
+    public void testInternalError() throws IOException {
+        final ClassifierServer failing = new ClassifierServer(new BayesClassifier<String, String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Classification<String, String> classify(Collection<String> features) {
+                throw new StackOverflowError();
+            }
+        }, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        failing.start();
+        final ClassifierServer served = server;
+        server = failing;
+        try {
+            Assert.assertEquals("internal error",
+                    ((Map<?, ?>) request("POST", "/classify", "{\"features\":[\"rain\"]}", 500)).get("error"));
+            Assert.assertEquals(1, failing.getMetrics().get("/classify").getErrors());
+        } finally {
+            server = served;
+            failing.stop(0);
+        }
+    }
+
+    @Test
+    public void testInternalErrorIsLogged() throws IOException {
+        final ClassifierServer failing = new ClassifierServer(new BayesClassifier<String, String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Classification<String, String> classify(Collection<String> features) {
+                throw new IllegalStateException("broken");
+            }
+        }, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        final List<LogRecord> records = new CopyOnWriteArrayList<LogRecord>();
+        final Handler handler = new Handler() {
+
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final Logger logger = Logger.getLogger(ClassifierServer.class.getName());
+        logger.addHandler(handler);
+        failing.start();
+        final ClassifierServer served = server;
+        server = failing;
+        try {
+            request("POST", "/classify", "{\"features\":[\"rain\"]}", 500);
+            Assert.assertEquals(1, records.size());
+            Assert.assertEquals(Level.SEVERE, records.get(0).getLevel());
+            Assert.assertEquals("broken", records.get(0).getThrown().getMessage());
+        } finally {
+            logger.removeHandler(handler);
+            server = served;
+            failing.stop(0);
+        }
+    }
+
+    @Test
+    public void testErrorIsPassedOn() throws IOException {
+        final ClassifierServer failing = new ClassifierServer(new BayesClassifier<String, String>() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Classification<String, String> classify(Collection<String> features) {
+                throw new AssertionError("broken");
+            }
+        }, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        failing.start();
+        final ClassifierServer served = server;
+        server = failing;
+        try {
+            request("POST", "/classify", "{\"features\":[\"rain\"]}", 500);
+            Assert.fail("expected the connection to be closed");
+        } catch (IOException e) {
+            Assert.assertTrue(failing.getMetrics().get("/classify").getErrors() > 0);
+        } finally {
+            server = served;
+            failing.stop(0);
+        }
+    }
+}